@@ -16,6 +16,7 @@
 package com.github.flowersinthesand.portal.atmosphere;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
@@ -33,6 +34,7 @@ import com.github.flowersinthesand.portal.Init;
 import com.github.flowersinthesand.portal.Wire;
 import com.github.flowersinthesand.portal.spi.SocketController;
 import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.Transport;
 
 @Bean("socketController")
 public class AtmosphereSocketController implements AtmosphereHandler, SocketController {
@@ -108,12 +110,17 @@ public class AtmosphereSocketController implements AtmosphereHandler, SocketCont
 		AtmosphereResource resource = event.getResource();
 		AtmosphereRequest req = resource.getRequest();
 		AtmosphereResponse res = resource.getResponse();
-		PrintWriter writer = res.getWriter();
-		
-		writer.print((String) event.getMessage());
-		writer.flush();
+		if (event.getMessage() instanceof byte[]) {
+			OutputStream out = res.getOutputStream();
+			out.write((byte[]) event.getMessage());
+			out.flush();
+		} else {
+			PrintWriter writer = res.getWriter();
+			writer.print((String) event.getMessage());
+			writer.flush();
+		}
 		
-		if (req.getParameter("transport").startsWith("longpoll")) {
+		if (Transport.of(req.getParameter("transport")).longpolling()) {
 			req.setAttribute("used", true);
 			resource.resume();
 		}
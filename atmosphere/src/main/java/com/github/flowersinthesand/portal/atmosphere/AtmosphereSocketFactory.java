@@ -16,17 +16,18 @@
 package com.github.flowersinthesand.portal.atmosphere;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 import org.atmosphere.cpr.AtmosphereRequest;
 import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.AtmosphereResourceEvent;
-import org.atmosphere.cpr.Broadcaster;
-import org.atmosphere.cpr.BroadcasterFactory;
+import org.atmosphere.cpr.AtmosphereResponse;
 import org.atmosphere.websocket.WebSocketEventListenerAdapter;
 
 import com.github.flowersinthesand.portal.Bean;
 import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.Transport;
 
 @Bean("socketFactory")
 public class AtmosphereSocketFactory extends AbstractSocketFactory {
@@ -35,13 +36,13 @@ public class AtmosphereSocketFactory extends AbstractSocketFactory {
 		final AtmosphereRequest req = resource.getRequest();
 		final String when = req.getParameter("when");
 		final String id = req.getParameter("id");
-		final String transport = req.getParameter("transport");
+		final Transport transport = Transport.of(req.getParameter("transport"));
 
-		if (transport.equals("ws")) {
+		if (transport == Transport.WS) {
 			sockets.put(id, new WsSocket(resource));
-		} else if (transport.equals("sse") || transport.startsWith("stream")) {
+		} else if (transport.streaming()) {
 			sockets.put(id, new StreamSocket(resource));
-		} else if (transport.startsWith("longpoll") && when.equals("open")) {
+		} else if (transport.longpolling() && when.equals("open")) {
 			sockets.put(id, new LongPollSocket(resource));
 		}
 
@@ -78,8 +79,8 @@ public class AtmosphereSocketFactory extends AbstractSocketFactory {
 
 			private void cleanup() {
 				if (sockets.containsKey(id)) {
-					if ((transport.equals("ws") || transport.equals("sse") || transport.startsWith("stream"))
-							|| (transport.startsWith("longpoll") && when.equals("poll") && req.getAttribute("used") == null)) {
+					if ((transport == Transport.WS || transport.streaming())
+							|| (transport.longpolling() && when.equals("poll") && req.getAttribute("used") == null)) {
 						((AtmosphereSocket) sockets.get(id)).onClose();
 					}
 				}
@@ -88,50 +89,57 @@ public class AtmosphereSocketFactory extends AbstractSocketFactory {
 		.suspend();
 	}
 
-	private static class BroadcasterFactoryHolder {
-		static BroadcasterFactory defaults = BroadcasterFactory.getDefault();
-	}
-
-	private static BroadcasterFactory broadcasterFactory() {
-		return BroadcasterFactoryHolder.defaults;
-	}
-	
 	class AtmosphereSocket extends AbstractSocket {
 
-		protected Broadcaster broadcaster;
+		protected volatile AtmosphereResource resource;
 
 		public AtmosphereSocket(AtmosphereResource resource) {
 			this.params = params(resource.getRequest().getParameterMap());
-			this.broadcaster = broadcasterFactory().get(id()).addAtmosphereResource(resource);
+			this.resource = resource;
 		}
 
 		@Override
 		protected void transmit(String it) {
-			broadcaster.broadcast(it);
+			AtmosphereResource resource = this.resource;
+			if (resource != null) {
+				write(resource, it);
+			}
+		}
+
+		// Writes to the resource directly instead of going through a broadcaster
+		// of its own as the socket is the only one writing to it
+		protected synchronized void write(AtmosphereResource resource, Object message) {
+			AtmosphereResponse res = resource.getResponse();
+			try {
+				if (message instanceof byte[]) {
+					OutputStream out = res.getOutputStream();
+					out.write((byte[]) message);
+					out.flush();
+				} else {
+					PrintWriter writer = res.getWriter();
+					writer.print((String) message);
+					writer.flush();
+				}
+			} catch (IOException e) {
+				onClose();
+			}
 		}
 
 		@Override
 		protected void disconnect() {
-			if (broadcaster.getAtmosphereResources().size() == 0) {
+			AtmosphereResource resource = this.resource;
+			if (resource == null) {
 				onClose();
 			} else {
-				for (AtmosphereResource r : broadcaster.getAtmosphereResources()) {
-					r.resume();
-					try {
-						r.close();
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+				resource.resume();
+				try {
+					resource.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
 				}
 			}
 		}
 
-		@Override
-		public void onClose() {
-			super.onClose();
-			broadcaster.destroy();
-		}
-		
 		public void onSuspend(AtmosphereResource resource) {}
 		
 	}
@@ -154,28 +162,36 @@ public class AtmosphereSocketFactory extends AbstractSocketFactory {
 		public StreamSocket(AtmosphereResource resource) {
 			super(resource);
 			this.isAndroid = isAndroid(resource.getRequest().getHeader("user-agent"));
-			resource.getResponse().setContentType(streamContentType());
+			resource.getResponse().setContentType(streamContentType() + "; charset=utf-8");
 		}
 
 		@Override
 		public void onSuspend(AtmosphereResource resource) {
-			PrintWriter writer;
 			try {
-				writer = resource.getResponse().getWriter();
+				OutputStream out = resource.getResponse().getOutputStream();
+				out.write(isAndroid ? padding4KBytes : padding2KBytes);
+				out.write('\n');
+				out.flush();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
 			
-			writer.print(padding2K);
-			if (isAndroid) {
-				writer.print(padding2K);
-			}
-			writer.print('\n');
-			writer.flush();
-			
 			onOpen();
 		}
 
+		@Override
+		protected boolean transmitsBytes() {
+			return true;
+		}
+
+		@Override
+		protected void transmit(byte[] it) {
+			AtmosphereResource resource = this.resource;
+			if (resource != null) {
+				write(resource, it);
+			}
+		}
+
 	}
 	
 	class LongPollSocket extends AtmosphereSocket {
@@ -191,14 +207,29 @@ public class AtmosphereSocketFactory extends AbstractSocketFactory {
 			String when = req.getParameter("when"); 
 			
 			if (when.equals("open")) {
+				this.resource = null;
 				resource.resume();
 				onOpen();
 			} else if (when.equals("poll")) {
-				this.broadcaster.addAtmosphereResource(resource);
+				this.resource = resource;
 				retrieveCache(req.getParameter("lastEventIds"));
 			}
 		}
 
+		@Override
+		protected void transmit(String it) {
+			AtmosphereResource resource;
+			synchronized (this) {
+				resource = this.resource;
+				this.resource = null;
+			}
+			if (resource != null) {
+				write(resource, it);
+				resource.getRequest().setAttribute("used", true);
+				resource.resume();
+			}
+		}
+
 	}
 
 }
@@ -16,10 +16,7 @@
 package com.github.flowersinthesand.portal.atmosphere;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -28,6 +25,9 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.github.flowersinthesand.portal.support.StaticAsset;
 
 public class StaticResourceFilter implements Filter {
 
@@ -36,6 +36,8 @@ public class StaticResourceFilter implements Filter {
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
 		classLoader = Thread.currentThread().getContextClassLoader();
+		StaticAsset.get(classLoader, "/portal/portal.js");
+		StaticAsset.get(classLoader, "/portal/portal.min.js");
 	}
 
 	@Override
@@ -45,39 +47,36 @@ public class StaticResourceFilter implements Filter {
 			return;
 		}
 
-		String servletPath = ((HttpServletRequest) req).getServletPath();
-		if (servletPath.matches("^(/portal/.+\\.(?:js))$")) {
-			URL url = classLoader.getResource("META-INF/resources" + servletPath);
-			if (url != null) {
-				URLConnection conn = url.openConnection();
-				res.setContentType("application/javascript");
-				res.setCharacterEncoding("utf-8");
-				res.setContentLength(conn.getContentLength());
-				write(conn.getInputStream(), res.getOutputStream());
-			} else {
-				chain.doFilter(req, res);
-			}
-		} else {
+		HttpServletRequest request = (HttpServletRequest) req;
+		String servletPath = request.getServletPath();
+		StaticAsset asset = null;
+		if (servletPath.startsWith("/portal/") && servletPath.endsWith(".js") && servletPath.length() > "/portal/.js".length()) {
+			asset = StaticAsset.get(classLoader, servletPath);
+		}
+		if (asset == null) {
 			chain.doFilter(req, res);
+			return;
+		}
+
+		HttpServletResponse response = (HttpServletResponse) res;
+		boolean gzip = StaticAsset.acceptsGzip(request.getHeader("Accept-Encoding"));
+		response.setHeader("ETag", asset.etag(gzip));
+		response.setHeader("Cache-Control", StaticAsset.CACHE_CONTROL);
+		response.setHeader("Vary", "Accept-Encoding");
+		if (asset.matches(request.getHeader("If-None-Match"), gzip)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
 		}
-	}
 
-	private void write(InputStream in, OutputStream out) throws IOException {
-		try {
-			byte[] buffer = new byte[4096];
-			int bytesRead = -1;
-			while ((bytesRead = in.read(buffer)) != -1) {
-				out.write(buffer, 0, bytesRead);
-			}
-			out.flush();
-		} finally {
-			try {
-				in.close();
-			} catch (IOException ex) {}
-			try {
-				out.close();
-			} catch (IOException ex) {}
+		if (gzip) {
+			response.setHeader("Content-Encoding", "gzip");
 		}
+		response.setContentType("application/javascript");
+		response.setCharacterEncoding("utf-8");
+		response.setContentLength(asset.length(gzip));
+		OutputStream out = response.getOutputStream();
+		asset.write(out, gzip);
+		out.flush();
 	}
 
 	@Override
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.flowersinthesand.portal.Async;
+import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.support.DefaultDispatcher;
+
+/**
+ * Measures how long firing an event to each of 100 sockets keeps the calling
+ * thread, which stands for an event loop, busy when every handler blocks for
+ * a millisecond. The time of {@code async} should stay in microseconds while
+ * {@code inline} takes as long as the handlers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBenchmark {
+
+	static final int SOCKETS = 100;
+
+	@Param({ "inline", "async" })
+	String mode;
+
+	DefaultDispatcher dispatcher;
+	Socket[] sockets = new Socket[SOCKETS];
+
+	@Setup
+	public void setup() throws Exception {
+		Handlers handlers = new Handlers();
+		dispatcher = new DefaultDispatcher();
+		dispatcher.on("inline", handlers, Handlers.class.getMethod("inline"));
+		dispatcher.on("async", handlers, Handlers.class.getMethod("async"));
+		MemorySocketFactory factory = new MemorySocketFactory();
+		for (int i = 0; i < SOCKETS; i++) {
+			sockets[i] = factory.open("ws");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		dispatcher.destroy();
+	}
+
+	@TearDown(Level.Invocation)
+	public void drain() throws InterruptedException {
+		while (dispatcher.pending() > 0) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SOCKETS)
+	public void fire() {
+		for (Socket socket : sockets) {
+			dispatcher.fire(mode, socket);
+		}
+	}
+
+	public static class Handlers {
+
+		public void inline() throws InterruptedException {
+			Thread.sleep(1);
+		}
+
+		@Async
+		public void async() throws InterruptedException {
+			Thread.sleep(1);
+		}
+
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.flowersinthesand.portal.Data;
+import com.github.flowersinthesand.portal.Reply;
+import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.spi.Dispatcher;
+import com.github.flowersinthesand.portal.support.DefaultDispatcher;
+
+/**
+ * Measures handlers with 0, 1 and 3 parameters registered to
+ * {@code DefaultDispatcher}, which call their methods through generated
+ * accessors. {@code Method.invoke} with an argument array, which handlers of
+ * non-public methods fall back to, and a {@code MethodHandle} are measured as
+ * references.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+
+	Dispatcher.Handler handler0;
+	Dispatcher.Handler handler1;
+	Dispatcher.Handler handler3;
+	Socket socket;
+	String data = "data";
+	Handlers handlers;
+	ObjectMapper mapper = new ObjectMapper();
+
+	Method method0;
+	Method method1;
+	Method method3;
+	Resolver[] resolvers1;
+	Resolver[] resolvers3;
+	MethodHandle handle0;
+	MethodHandle handle1;
+	MethodHandle handle3;
+
+	@Setup
+	public void setup() throws Exception {
+		handlers = new Handlers();
+		Dispatcher dispatcher = new DefaultDispatcher();
+		dispatcher.on("zero", handlers, Handlers.class.getMethod("zero"));
+		dispatcher.on("one", handlers, Handlers.class.getMethod("one", Socket.class));
+		dispatcher.on("three", handlers, Handlers.class.getMethod("three", Socket.class, String.class, Reply.Fn.class));
+		handler0 = dispatcher.handlers("zero").iterator().next();
+		handler1 = dispatcher.handlers("one").iterator().next();
+		handler3 = dispatcher.handlers("three").iterator().next();
+		socket = new MemorySocketFactory().open("ws");
+
+		method0 = Handlers.class.getMethod("zero");
+		method1 = Handlers.class.getMethod("one", Socket.class);
+		method3 = Handlers.class.getMethod("three", Socket.class, String.class, Reply.Fn.class);
+		resolvers1 = new Resolver[] { new SocketResolver() };
+		resolvers3 = new Resolver[] { new SocketResolver(), new DataResolver(), new ReplyResolver() };
+
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		handle0 = lookup.findVirtual(Handlers.class, "zero", MethodType.methodType(void.class));
+		handle1 = lookup.findVirtual(Handlers.class, "one", MethodType.methodType(void.class, Socket.class));
+		handle3 = lookup.findVirtual(Handlers.class, "three", MethodType.methodType(void.class, Socket.class, String.class, Reply.Fn.class));
+	}
+
+	@Benchmark
+	public int handler0() {
+		handler0.handle(socket, data, null);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int handler1() {
+		handler1.handle(socket, data, null);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int handler3() {
+		handler3.handle(socket, data, null);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int reflective0() throws Exception {
+		reflective(method0, new Resolver[0]);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int reflective1() throws Exception {
+		reflective(method1, resolvers1);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int reflective3() throws Exception {
+		reflective(method3, resolvers3);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int methodHandle0() throws Throwable {
+		handle0.invokeExact(handlers);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int methodHandle1() throws Throwable {
+		handle1.invokeExact(handlers, socket);
+		return handlers.count;
+	}
+
+	@Benchmark
+	public int methodHandle3() throws Throwable {
+		handle3.invokeExact(handlers, socket, mapper.convertValue(data, String.class), (Reply.Fn) null);
+		return handlers.count;
+	}
+
+	private void reflective(Method method, Resolver[] resolvers) throws Exception {
+		Object[] args = new Object[resolvers.length];
+		for (int i = 0; i < resolvers.length; i++) {
+			args[i] = resolvers[i].resolve(socket, data, null);
+		}
+		method.invoke(handlers, args);
+	}
+
+	abstract static class Resolver {
+		abstract Object resolve(Socket socket, Object data, Reply.Fn reply);
+	}
+
+	static class SocketResolver extends Resolver {
+		@Override
+		Object resolve(Socket socket, Object data, Reply.Fn reply) {
+			return socket;
+		}
+	}
+
+	class DataResolver extends Resolver {
+		@Override
+		Object resolve(Socket socket, Object data, Reply.Fn reply) {
+			return mapper.convertValue(data, String.class);
+		}
+	}
+
+	static class ReplyResolver extends Resolver {
+		@Override
+		Object resolve(Socket socket, Object data, Reply.Fn reply) {
+			return reply;
+		}
+	}
+
+	public static class Handlers {
+
+		public int count;
+
+		public void zero() {
+			count++;
+		}
+
+		public void one(Socket socket) {
+			count++;
+		}
+
+		public void three(Socket socket, @Data String data, @Reply Reply.Fn reply) {
+			count++;
+		}
+
+	}
+
+}
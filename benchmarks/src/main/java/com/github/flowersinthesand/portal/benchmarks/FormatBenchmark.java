@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.flowersinthesand.portal.benchmarks.MemorySocketFactory.MemorySocket;
+import com.github.flowersinthesand.portal.support.Message;
+
+/**
+ * Measures framing an outbound event for each transport. {@code format}
+ * frames an already serialized message, {@code encode} does the same into
+ * UTF-8 bytes and {@code send} covers the whole path of {@code Socket.send}
+ * including serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+	@Param({ "ws", "sse", "streamxhr", "longpollajax", "longpolljsonp" })
+	String transport;
+	@Param({ "small", "large" })
+	String payload;
+
+	MemorySocket socket;
+	Object data;
+	Message message;
+
+	@Setup
+	public void setup() {
+		socket = new MemorySocketFactory().open(transport);
+		data = RoomBenchmark.payload(payload);
+		message = new Message(new ObjectMapper(), "message", data, false);
+	}
+
+	@Benchmark
+	public String format() {
+		return socket.format(message, 1);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return socket.encode(message, 1);
+	}
+
+	@Benchmark
+	public long send() {
+		socket.send("message", data);
+		return socket.written;
+	}
+
+}
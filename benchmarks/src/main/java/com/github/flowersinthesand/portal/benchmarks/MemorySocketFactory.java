@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.flowersinthesand.portal.spi.Dispatcher;
+import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.DefaultDispatcher;
+import com.github.flowersinthesand.portal.support.Message;
+import com.github.flowersinthesand.portal.support.ReplyHandler;
+
+public class MemorySocketFactory extends AbstractSocketFactory {
+
+	public MemorySocketFactory() {
+		dispatcher = new DefaultDispatcher();
+		replyHandler = new ReplyHandler();
+	}
+
+	public Dispatcher dispatcher() {
+		return dispatcher;
+	}
+
+	public ReplyHandler replyHandler() {
+		return replyHandler;
+	}
+
+	public MemorySocket open(String transport) {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("id", "socket-" + sockets.size());
+		params.put("transport", transport);
+		params.put("callback", "portal_callback");
+
+		MemorySocket socket = new MemorySocket(params);
+		sockets.put(socket.id(), socket);
+		socket.onOpen();
+		return socket;
+	}
+
+	public class MemorySocket extends AbstractSocket {
+
+		public long written;
+
+		MemorySocket(Map<String, String> params) {
+			this.params = params;
+		}
+
+		public String format(Message message, int id) {
+			return super.format(message, id);
+		}
+
+		public byte[] encode(Message message, int id) {
+			return super.encode(message, id);
+		}
+
+		@Override
+		protected void transmit(String it) {
+			written += it.length();
+		}
+
+		@Override
+		protected void transmit(byte[] it) {
+			written += it.length;
+		}
+
+		@Override
+		protected void disconnect() {
+			onClose();
+		}
+
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.flowersinthesand.portal.Reply;
+import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.benchmarks.MemorySocketFactory.MemorySocket;
+import com.github.flowersinthesand.portal.support.ReplyHandler;
+
+/**
+ * Measures a reply round trip: sending an event with a {@code Reply.Fn} and
+ * then receiving the client's reply, either handed to {@code ReplyHandler}
+ * directly or fired as a raw inbound event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplyBenchmark {
+
+	MemorySocketFactory factory;
+	MemorySocket socket;
+	ReplyHandler replyHandler;
+	Counter counter;
+	int eventId;
+
+	@Setup
+	public void setup() throws Exception {
+		factory = new MemorySocketFactory();
+		replyHandler = factory.replyHandler();
+		factory.dispatcher().on("reply", replyHandler, ReplyHandler.class.getMethod("reply", Socket.class, Map.class));
+		socket = factory.open("ws");
+		counter = new Counter();
+	}
+
+	@Benchmark
+	public int direct() {
+		socket.send("question", "data", counter);
+
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("id", ++eventId);
+		data.put("data", "answer");
+		replyHandler.reply(socket, data);
+		return counter.count;
+	}
+
+	@Benchmark
+	public int fired() {
+		socket.send("question", "data", counter);
+		factory.fire("{\"id\":1,\"socket\":\"" + socket.id() + "\",\"type\":\"reply\","
+			+ "\"data\":{\"id\":" + (++eventId) + ",\"data\":\"answer\"},\"reply\":false}");
+		return counter.count;
+	}
+
+	static class Counter implements Reply.Fn {
+
+		int count;
+
+		@Override
+		public void done() {}
+
+		@Override
+		public void done(Object data) {
+			count++;
+		}
+
+		@Override
+		public void fail(Throwable error) {}
+
+	}
+
+}
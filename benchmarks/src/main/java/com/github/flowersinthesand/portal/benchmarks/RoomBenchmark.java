@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.flowersinthesand.portal.Room;
+import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.support.DefaultRoomFactory;
+
+/**
+ * Compares {@code Room.send}, which serializes the payload once per broadcast,
+ * with sending the same payload to every member one by one. The time of
+ * {@code broadcast} should hardly change between the small and large payload
+ * while {@code eachSocket} grows with the serialization cost.
+ * {@code broadcastOthers} should cost the same as {@code broadcast} since
+ * excluding the sender doesn't copy the room.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	int members;
+	@Param({ "small", "large" })
+	String payload;
+	@Param({ "ws", "sse", "longpolljsonp" })
+	String transport;
+
+	Room room;
+	Socket sender;
+	Object data;
+
+	@Setup
+	public void setup() {
+		MemorySocketFactory factory = new MemorySocketFactory();
+		room = new DefaultRoomFactory().open("hall");
+		for (int i = 0; i < members; i++) {
+			room.add(factory.open(transport));
+		}
+		sender = room.sockets().iterator().next();
+		data = payload(payload);
+	}
+
+	@Benchmark
+	public Room broadcast() {
+		return room.send("message", data);
+	}
+
+	@Benchmark
+	public Room broadcastOthers() {
+		return room.out(sender).send("message", data);
+	}
+
+	@Benchmark
+	public Room eachSocket() {
+		for (Socket socket : room.sockets()) {
+			socket.send("message", data);
+		}
+		return room;
+	}
+
+	static Object payload(String size) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("username", "flowersinthesand");
+		map.put("message", "Hello, portal");
+		if (size.equals("large")) {
+			List<Object> history = new ArrayList<Object>();
+			for (int i = 0; i < 50; i++) {
+				Map<String, Object> entry = new LinkedHashMap<String, Object>();
+				entry.put("seq", i);
+				entry.put("text", "The quick brown fox jumps over the lazy dog #" + i);
+				history.add(entry);
+			}
+			map.put("history", history);
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.flowersinthesand.portal.Data;
+import com.github.flowersinthesand.portal.Socket;
+
+/**
+ * Measures {@code AbstractSocketFactory.fire}, that is parsing an inbound
+ * event and dispatching it to an {@code @On} handler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketFactoryBenchmark {
+
+	@Param({ "string", "bean" })
+	String data;
+
+	MemorySocketFactory factory;
+	Handlers handlers;
+	String raw;
+
+	@Setup
+	public void setup() throws Exception {
+		factory = new MemorySocketFactory();
+		handlers = new Handlers();
+		factory.dispatcher().on("string", handlers, Handlers.class.getMethod("string", Socket.class, String.class));
+		factory.dispatcher().on("bean", handlers, Handlers.class.getMethod("bean", Socket.class, Chat.class));
+
+		String socket = factory.open("ws").id();
+		if (data.equals("string")) {
+			raw = "{\"id\":1,\"socket\":\"" + socket + "\",\"type\":\"string\",\"data\":\"Hello, portal\",\"reply\":false}";
+		} else {
+			raw = "{\"id\":1,\"socket\":\"" + socket + "\",\"type\":\"bean\","
+				+ "\"data\":{\"username\":\"flowersinthesand\",\"message\":\"Hello, portal\",\"time\":1361183231000},\"reply\":false}";
+		}
+	}
+
+	@Benchmark
+	public int fire() {
+		factory.fire(raw);
+		return handlers.count;
+	}
+
+	public static class Handlers {
+
+		public int count;
+
+		public void string(Socket socket, @Data String message) {
+			count++;
+		}
+
+		public void bean(Socket socket, @Data Chat chat) {
+			count++;
+		}
+
+	}
+
+	public static class Chat {
+
+		private String username;
+		private String message;
+		private long time;
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public void setTime(long time) {
+			this.time = time;
+		}
+
+	}
+
+}
@@ -32,6 +32,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,9 +99,15 @@ public class App {
 		Map<String, Class<?>> classes = scan(packages);
 		beans.putAll(options.beans());
 		
+		if (!beans.containsKey("options")) {
+			beans.put("options", options);
+		}
 		if (!beans.containsKey(ObjectFactory.class.getName())) {
 			beans.put(ObjectFactory.class.getName(), new NewObjectFactory());
 		}
+		if (!beans.containsKey(ObjectMapper.class.getName())) {
+			beans.put(ObjectMapper.class.getName(), new ObjectMapper());
+		}
 		ObjectFactory factory = (ObjectFactory) beans.get(ObjectFactory.class.getName());
 		logger.info("ObjectFactory '{}' is initialized", factory);
 
@@ -20,6 +20,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 public class Options {
 
@@ -28,6 +29,20 @@ public class Options {
 	private boolean register;
 	private Set<String> packages = new LinkedHashSet<String>();
 	private Map<String, Object> beans = new LinkedHashMap<String, Object>();
+	private Executor broadcastExecutor;
+	private int broadcastThreshold = 1024;
+	private int outboundCapacity = Integer.MAX_VALUE;
+	private Overflow outboundOverflow = Overflow.DROP_OLDEST;
+	private long replyTimeout;
+	private int replyCapacity = 1024;
+	private int replayCapacity = 128;
+	private Executor dispatchExecutor;
+	private Executor asyncExecutor;
+	private boolean metrics;
+	private int batchSize = 1;
+	private long batchDelay;
+	private long longpollWindow;
+	private long timerTick = 100;
 
 	public String name() {
 		return name != null ? name : url;
@@ -94,6 +109,139 @@ public class Options {
 		return this;
 	}
 
+	public Executor broadcastExecutor() {
+		return broadcastExecutor;
+	}
+
+	public Options broadcastExecutor(Executor broadcastExecutor) {
+		this.broadcastExecutor = broadcastExecutor;
+		return this;
+	}
+
+	public int broadcastThreshold() {
+		return broadcastThreshold;
+	}
+
+	public Options broadcastThreshold(int broadcastThreshold) {
+		this.broadcastThreshold = broadcastThreshold;
+		return this;
+	}
+
+	public int outboundCapacity() {
+		return outboundCapacity;
+	}
+
+	public Options outboundCapacity(int outboundCapacity) {
+		this.outboundCapacity = outboundCapacity;
+		return this;
+	}
+
+	public Overflow outboundOverflow() {
+		return outboundOverflow;
+	}
+
+	public Options outboundOverflow(Overflow outboundOverflow) {
+		this.outboundOverflow = outboundOverflow;
+		return this;
+	}
+
+	public long replyTimeout() {
+		return replyTimeout;
+	}
+
+	public Options replyTimeout(long replyTimeout) {
+		this.replyTimeout = replyTimeout;
+		return this;
+	}
+
+	public int replyCapacity() {
+		return replyCapacity;
+	}
+
+	public Options replyCapacity(int replyCapacity) {
+		this.replyCapacity = replyCapacity;
+		return this;
+	}
+
+	public int replayCapacity() {
+		return replayCapacity;
+	}
+
+	public Options replayCapacity(int replayCapacity) {
+		this.replayCapacity = replayCapacity;
+		return this;
+	}
+
+	public Executor dispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	public Options dispatchExecutor(Executor dispatchExecutor) {
+		this.dispatchExecutor = dispatchExecutor;
+		return this;
+	}
+
+	public Executor asyncExecutor() {
+		return asyncExecutor;
+	}
+
+	public Options asyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+		return this;
+	}
+
+	public boolean metrics() {
+		return metrics;
+	}
+
+	public Options metrics(boolean metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	public int batchSize() {
+		return batchSize;
+	}
+
+	public Options batchSize(int batchSize) {
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	public long batchDelay() {
+		return batchDelay;
+	}
+
+	public Options batchDelay(long batchDelay) {
+		this.batchDelay = batchDelay;
+		return this;
+	}
+
+	public long longpollWindow() {
+		return longpollWindow;
+	}
+
+	public Options longpollWindow(long longpollWindow) {
+		this.longpollWindow = longpollWindow;
+		return this;
+	}
+
+	/**
+	 * The duration of a tick of the timer in milliseconds. Timeouts expire
+	 * on the first tick after their deadline, so a shorter batchDelay or
+	 * longpollWindow is rounded up to it.
+	 *
+	 * @return the tick duration in milliseconds
+	 */
+	public long timerTick() {
+		return timerTick;
+	}
+
+	public Options timerTick(long timerTick) {
+		this.timerTick = timerTick;
+		return this;
+	}
+
 	public String toString() {
 		Map<String, Object> map = new LinkedHashMap<String, Object>();
 
@@ -102,8 +250,31 @@ public class Options {
 		map.put("register", register());
 		map.put("packages", packages());
 		map.put("beans", beans());
+		map.put("broadcastExecutor", broadcastExecutor());
+		map.put("broadcastThreshold", broadcastThreshold());
+		map.put("outboundCapacity", outboundCapacity());
+		map.put("outboundOverflow", outboundOverflow());
+		map.put("replyTimeout", replyTimeout());
+		map.put("replyCapacity", replyCapacity());
+		map.put("replayCapacity", replayCapacity());
+		map.put("dispatchExecutor", dispatchExecutor());
+		map.put("asyncExecutor", asyncExecutor());
+		map.put("metrics", metrics());
+		map.put("batchSize", batchSize());
+		map.put("batchDelay", batchDelay());
+		map.put("longpollWindow", longpollWindow());
+		map.put("timerTick", timerTick());
 
 		return map.toString();
 	}
 
+	/**
+	 * What a socket does with an event when its outbound queue is full.
+	 * COALESCE replaces a queued event of the same type and falls back to
+	 * DROP_OLDEST if there is none.
+	 */
+	public enum Overflow {
+		DROP_OLDEST, DROP_NEWEST, COALESCE, DISCONNECT
+	}
+
 }
@@ -21,6 +21,14 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Marks a handler which replies to the event with its return value or a
+ * {@link Fn} parameter. A method may return a CompletionStage or a Future
+ * whose value is sent once it completes. A Future which is not done yet is
+ * waited for in a thread of the async executor, which is one thread per such
+ * Future unless virtual threads are available, so a CompletionStage is
+ * preferred.
+ */
 @Target({ ElementType.PARAMETER, ElementType.METHOD })
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
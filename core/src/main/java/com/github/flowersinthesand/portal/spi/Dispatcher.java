@@ -32,6 +32,15 @@ public interface Dispatcher {
 
 	void fire(String type, Socket socket, Object data);
 
+	/**
+	 * Fires the event to the handlers. Data received from the client is
+	 * decoded from JSON into maps, lists, strings, numbers, booleans and null.
+	 *
+	 * @param type the event type
+	 * @param socket the socket which has sent the event
+	 * @param data the decoded data
+	 * @param eventIdForReply the id of the event to reply to, 0 if no reply is wanted
+	 */
 	void fire(String type, Socket socket, Object data, int eventIdForReply);
 
 	interface Handler {
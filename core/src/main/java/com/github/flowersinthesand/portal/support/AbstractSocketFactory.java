@@ -17,23 +17,33 @@ package com.github.flowersinthesand.portal.support;
 
 import java.io.IOException;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
+import org.codehaus.jackson.util.TokenBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.flowersinthesand.portal.Options;
+import com.github.flowersinthesand.portal.Options.Overflow;
 import com.github.flowersinthesand.portal.Reply;
 import com.github.flowersinthesand.portal.Socket;
 import com.github.flowersinthesand.portal.Wire;
@@ -43,14 +53,28 @@ import com.github.flowersinthesand.portal.spi.SocketFactory;
 public abstract class AbstractSocketFactory implements SocketFactory {
 
 	protected static final String padding2K = CharBuffer.allocate(2048).toString().replace('\0', ' ');
+	protected static final String padding4K = padding2K + padding2K;
+	protected static final Charset utf8 = Charset.forName("UTF-8");
+	protected static final byte[] padding2KBytes = padding2K.getBytes(utf8);
+	protected static final byte[] padding4KBytes = padding4K.getBytes(utf8);
 
 	private final Logger logger = LoggerFactory.getLogger(AbstractSocketFactory.class);
 	protected ConcurrentMap<String, Socket> sockets = new ConcurrentHashMap<String, Socket>();
+	@Wire
 	protected ObjectMapper mapper = new ObjectMapper();
+	private final Handles handles = new Handles();
+	@Wire
+	protected Options options;
 	@Wire
 	protected Dispatcher dispatcher;
 	@Wire
 	protected ReplyHandler replyHandler;
+	@Wire
+	protected HashedWheelTimer timer;
+
+	public Socket find(String id) {
+		return id == null ? null : sockets.get(id);
+	}
 
 	public void abort(String id) {
 		if (sockets.containsKey(id)) {
@@ -59,14 +83,46 @@ public abstract class AbstractSocketFactory implements SocketFactory {
 	}
 
 	public void fire(String raw) {
-		Map<String, Object> m;
+		String type = null;
+		String socket = null;
+		int id = 0;
+		boolean reply = false;
+		Object data = null;
+
 		try {
-			m = mapper.readValue(raw, new TypeReference<Map<String, Object>>() {});
+			JsonParser parser = mapper.getJsonFactory().createJsonParser(raw);
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException("Event must be an object", parser.getCurrentLocation());
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if (name.equals("type")) {
+					type = parser.getText();
+				} else if (name.equals("socket")) {
+					socket = parser.getText();
+				} else if (name.equals("id")) {
+					id = parser.getIntValue();
+				} else if (name.equals("reply")) {
+					reply = parser.getCurrentToken() == JsonToken.VALUE_TRUE;
+				} else if (name.equals("data")) {
+					TokenBuffer buffer = new TokenBuffer(mapper);
+					buffer.copyCurrentStructure(parser);
+					// Only DefaultDispatcher defers binding the data to the handler
+					data = dispatcher instanceof DefaultDispatcher ? buffer : mapper.readValue(buffer.asParser(), Object.class);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			parser.close();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		logger.info("Receiving an event {}", m);
-		dispatcher.fire((String) m.get("type"), sockets.get(m.get("socket")), m.get("data"), (Boolean) m.get("reply") ? (Integer) m.get("id") : 0);
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Receiving an event#{} '{}' for socket#{}", new Object[] { id, type, socket });
+		}
+		dispatcher.fire(type, sockets.get(socket), data, reply ? id : 0);
 	}
 
 	public static Map<String, String> noCacheHeader() {
@@ -90,13 +146,52 @@ public abstract class AbstractSocketFactory implements SocketFactory {
 		private AtomicBoolean opened = new AtomicBoolean(false);
 		protected boolean isAndroid;
 		protected Map<String, String> params;
-		protected ObjectMapper mapper = new ObjectMapper();
 		protected AtomicInteger eventId = new AtomicInteger();
-		protected Set<Map<String, Object>> cache = new CopyOnWriteArraySet<Map<String, Object>>();
+		protected volatile ReplayLog replay;
+		protected Queue<Frame> outbound = new ConcurrentLinkedQueue<Frame>();
+		protected int capacity = options != null ? options.outboundCapacity() : Integer.MAX_VALUE;
+		protected Overflow overflow = options != null ? options.outboundOverflow() : Overflow.DROP_OLDEST;
+		protected int batchSize = options != null ? options.batchSize() : 1;
+		protected long batchDelay = atLeastTick(options != null ? options.batchDelay() : 0);
+		protected long longpollWindow = atLeastTick(options != null ? options.longpollWindow() : 0);
+		private AtomicInteger depth = new AtomicInteger();
+		private AtomicBoolean draining = new AtomicBoolean();
+		private AtomicBoolean flushing = new AtomicBoolean();
+		private AtomicBoolean replaying = new AtomicBoolean();
+		private AtomicLong dropped = new AtomicLong();
+		private volatile Connection connection;
+		private volatile int handle;
 
 		@Override
 		public String id() {
-			return params.get("id");
+			return connection().id;
+		}
+
+		public Transport transport() {
+			return connection().transport;
+		}
+
+		public long heartbeat() {
+			return connection().heartbeat;
+		}
+
+		/**
+		 * Returns the dense index of this socket among the open ones, which is
+		 * reused by another socket once this socket has been closed. 0 means
+		 * the socket is not open.
+		 *
+		 * @return the handle or 0
+		 */
+		public int handle() {
+			return handle;
+		}
+
+		private Connection connection() {
+			Connection connection = this.connection;
+			if (connection == null) {
+				connection = this.connection = new Connection(params);
+			}
+			return connection;
 		}
 
 		@Override
@@ -124,61 +219,328 @@ public abstract class AbstractSocketFactory implements SocketFactory {
 		@Override
 		public Socket send(String event, Object data, Reply.Fn reply) {
 			doSend(event, data, true);
-			replyHandler.set(id(), eventId.get(), reply);
+			replyHandler.set(this, eventId.get(), reply);
+			return this;
+		}
+
+		/**
+		 * Sends an event like {@link #send(String, Object, Reply.Fn)} but fails
+		 * the reply function with a TimeoutException if no reply arrives in
+		 * time. It is not a part of {@link Socket} so that other
+		 * implementations don't break.
+		 *
+		 * @param event the event name
+		 * @param data the data to send
+		 * @param reply the function to be called with the reply
+		 * @param timeout the timeout in milliseconds, 0 or less for no timeout
+		 * @return this socket
+		 */
+		public Socket send(String event, Object data, Reply.Fn reply, long timeout) {
+			doSend(event, data, true);
+			replyHandler.set(this, eventId.get(), reply, timeout);
+			return this;
+		}
+
+		public Socket send(Message message) {
+			doSend(message);
 			return this;
 		}
 
 		protected void doSend(String type, Object data, boolean reply) {
-			Map<String, Object> message = new LinkedHashMap<String, Object>();
+			doSend(new Message(mapper, type, data, reply));
+		}
 
-			message.put("id", eventId.incrementAndGet());
-			message.put("type", type);
-			message.put("data", data);
-			message.put("reply", reply);
+		protected void doSend(Message message) {
+			int id = eventId.incrementAndGet();
 
-			logger.info("Socket#{} is sending an event {}", id(), message);
-			if (param("transport").startsWith("longpoll")) {
-				cache.add(message);
+			if (logger.isInfoEnabled()) {
+				logger.info("Socket#{} is sending an event#{} {}", new Object[] { id(), id, message });
+			}
+			Object frame = transmitsBytes() ? encode(message, id) : format(message, id);
+			if (transport().longpolling()) {
+				int evicted = replay().add(id, frame instanceof String && transport() == Transport.LONGPOLL ? (String) frame : message.json(id));
+				if (evicted > 0) {
+					dropped.addAndGet(evicted);
+					logger.warn("Socket#{} evicted {} unacknowledged events from its replay log", id(), evicted);
+				}
+				// Gathers the events sent within the window into one response
+				if (longpollWindow > 0) {
+					if (flushing.compareAndSet(false, true)) {
+						timer.schedule(new Runnable() {
+							@Override
+							public void run() {
+								flushing.set(false);
+								flushReplay();
+							}
+						}, longpollWindow, TimeUnit.MILLISECONDS);
+					}
+					return;
+				}
+			}
+			// Holds the frame back until the batch is full or the delay has passed
+			if (batchDelay > 0 && batches()) {
+				enqueue(new Frame(message, frame));
+				if (depth.get() >= batchSize) {
+					drain();
+				} else if (flushing.compareAndSet(false, true)) {
+					timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							flushing.set(false);
+							drain();
+						}
+					}, batchDelay, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+			// Nothing is waiting in the queue so the frame can go out right away
+			if (depth.get() == 0 && draining.compareAndSet(false, true)) {
+				try {
+					if (depth.get() == 0 && writable()) {
+						write(frame);
+						frame = null;
+					}
+				} finally {
+					draining.set(false);
+				}
+			}
+			if (frame != null) {
+				enqueue(new Frame(message, frame));
 			}
-			transmit(format(message));
+			drain();
 		}
 
-		protected String format(Object message) {
-			StringBuilder builder = new StringBuilder();
-			String transport = param("transport");
-			String data;
-			try {
-				data = mapper.writeValueAsString(message);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+		// The timer can't expire a timeout before its next tick
+		private long atLeastTick(long delay) {
+			return delay > 0 && timer != null ? Math.max(delay, timer.tickDuration(TimeUnit.MILLISECONDS)) : delay;
+		}
+
+		protected ReplayLog replay() {
+			if (replay == null) {
+				synchronized (this) {
+					if (replay == null) {
+						replay = new ReplayLog(options != null ? options.replayCapacity() : 128);
+					}
+				}
 			}
-			logger.debug("Formatting data {} for {} transport", data, transport);
+			return replay;
+		}
 
-			if (transport.equals("ws")) {
-				builder.append(data);
-			} else if (transport.equals("sse") || transport.startsWith("stream")) {
-				if (isAndroid) {
-					builder.append(padding2K).append(padding2K);
+		protected void enqueue(Frame frame) {
+			while (!offer(frame)) {
+				switch (overflow) {
+				case DROP_NEWEST:
+					drop(frame);
+					return;
+				case COALESCE:
+					if (coalesce(frame)) {
+						return;
+					}
+					// Falls through
+				case DROP_OLDEST:
+					Frame oldest = poll();
+					if (oldest != null && oldest.take() != null) {
+						drop(oldest);
+					}
+					break;
+				case DISCONNECT:
+					logger.warn("Closing socket#{} whose outbound queue is full", id());
+					drop(frame);
+					close();
+					return;
 				}
-				for (String datum : data.split("\r\n|\r|\n")) {
-					builder.append("data: ").append(datum).append("\n");
+			}
+		}
+
+		private boolean offer(Frame frame) {
+			if (depth.incrementAndGet() > capacity) {
+				depth.decrementAndGet();
+				return false;
+			}
+			outbound.offer(frame);
+			return true;
+		}
+
+		private Frame poll() {
+			Frame frame = outbound.poll();
+			if (frame != null) {
+				depth.decrementAndGet();
+			}
+			return frame;
+		}
+
+		private boolean coalesce(Frame frame) {
+			if (frame.coalescable()) {
+				for (Frame queued : outbound) {
+					if (queued.coalescable() && queued.type.equals(frame.type) && queued.replace(frame.payload.get())) {
+						dropped.incrementAndGet();
+						return true;
+					}
 				}
-				builder.append("\n");
-			} else if (transport.startsWith("longpoll")) {
-				if (transport.equals("longpolljsonp")) {
-					try {
-						builder.append(param("callback")).append("(").append(mapper.writeValueAsString(data)).append(");");
-					} catch (Exception e) {
-						throw new RuntimeException(e);
+			}
+			return false;
+		}
+
+		private void drop(Frame frame) {
+			dropped.incrementAndGet();
+			logger.debug("Socket#{} dropped a frame of the event '{}'", id(), frame.type);
+		}
+
+		protected void drain() {
+			while ((depth.get() > 0 || replaying.get()) && draining.compareAndSet(false, true)) {
+				try {
+					if (replaying.compareAndSet(true, false)) {
+						transmitReplay();
 					}
+					if (batches()) {
+						Object batch;
+						while (writable() && (batch = batch()) != null) {
+							write(batch);
+						}
+					} else {
+						Frame frame;
+						while (writable() && (frame = poll()) != null) {
+							Object payload = frame.take();
+							if (payload != null) {
+								write(payload);
+							}
+						}
+					}
+				} finally {
+					draining.set(false);
+				}
+				if (!writable()) {
+					break;
+				}
+			}
+		}
+
+		protected boolean writable() {
+			return true;
+		}
+
+		/**
+		 * Whether queued frames may be written together. A long polling
+		 * response can carry only one frame.
+		 *
+		 * @return true if frames may be combined
+		 */
+		protected boolean batches() {
+			return batchSize > 1 && !transport().longpolling();
+		}
+
+		private Object batch() {
+			List<Object> payloads = null;
+			Object first = null;
+			Frame frame;
+			while ((payloads == null || payloads.size() < batchSize) && (frame = poll()) != null) {
+				Object payload = frame.take();
+				if (payload == null) {
+					continue;
+				}
+				if (first == null) {
+					first = payload;
 				} else {
-					builder.append(data);
+					if (payloads == null) {
+						payloads = new ArrayList<Object>(batchSize);
+						payloads.add(first);
+					}
+					payloads.add(payload);
+				}
+			}
+			return payloads == null ? first : combine(payloads);
+		}
+
+		/**
+		 * Joins frames into one. The client accepts a JSON array of events in
+		 * a WebSocket message and parses any number of events from a chunk of
+		 * a stream.
+		 *
+		 * @param payloads the payloads of the frames
+		 * @return the combined payload
+		 */
+		protected Object combine(List<Object> payloads) {
+			boolean array = transport() == Transport.WS;
+			if (payloads.get(0) instanceof byte[]) {
+				int length = array ? payloads.size() + 1 : 0;
+				for (Object payload : payloads) {
+					length += ((byte[]) payload).length;
+				}
+				byte[] bytes = new byte[length];
+				int offset = 0;
+				for (int i = 0; i < payloads.size(); i++) {
+					if (array) {
+						bytes[offset++] = (byte) (i == 0 ? '[' : ',');
+					}
+					byte[] payload = (byte[]) payloads.get(i);
+					System.arraycopy(payload, 0, bytes, offset, payload.length);
+					offset += payload.length;
+				}
+				if (array) {
+					bytes[offset] = ']';
 				}
+				return bytes;
 			}
 
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < payloads.size(); i++) {
+				if (array) {
+					builder.append(i == 0 ? '[' : ',');
+				}
+				builder.append((String) payloads.get(i));
+			}
+			if (array) {
+				builder.append(']');
+			}
 			return builder.toString();
 		}
 
+		private void write(Object frame) {
+			if (frame instanceof byte[]) {
+				transmit((byte[]) frame);
+			} else {
+				transmit((String) frame);
+			}
+		}
+
+		public int queued() {
+			return depth.get();
+		}
+
+		public long dropped() {
+			return dropped.get();
+		}
+
+		protected String format(Message message, int id) {
+			switch (transport()) {
+			case WS:
+			case LONGPOLL:
+				return message.json(id);
+			case SSE:
+			case STREAM:
+				return message.sse(id, isAndroid ? padding4K : null);
+			case LONGPOLLJSONP:
+				return message.jsonp(connection().callback, id);
+			default:
+				return "";
+			}
+		}
+
+		protected byte[] encode(Message message, int id) {
+			switch (transport()) {
+			case WS:
+			case LONGPOLL:
+				return message.jsonBytes(id);
+			case SSE:
+			case STREAM:
+				return message.sseBytes(id, isAndroid ? padding4KBytes : null);
+			case LONGPOLLJSONP:
+				return message.jsonp(connection().callback, id).getBytes(utf8);
+			default:
+				return new byte[0];
+			}
+		}
+
 		@Override
 		public Socket close() {
 			logger.info("Closing socket#{}", id());
@@ -188,6 +550,7 @@ public abstract class AbstractSocketFactory implements SocketFactory {
 
 		public void onOpen() {
 			if (opened.compareAndSet(false, true)) {
+				handle = handles.acquire();
 				logger.info("Socket#{} has been opened, params: {}", id(), params);
 				dispatcher.fire("open", this);
 			}
@@ -197,6 +560,23 @@ public abstract class AbstractSocketFactory implements SocketFactory {
 			if (opened.compareAndSet(true, false)) {
 				logger.info("Socket#{} has been closed", id());
 				dispatcher.fire("close", sockets.remove(id()));
+				Runnable release = new Runnable() {
+					@Override
+					public void run() {
+						int released = handle;
+						handle = 0;
+						if (replyHandler != null) {
+							replyHandler.release(AbstractSocket.this, released);
+						}
+						handles.release(released);
+					}
+				};
+				// The handle must not be reused until the close handlers have run
+				if (dispatcher instanceof DefaultDispatcher) {
+					((DefaultDispatcher) dispatcher).execute(this, release);
+				} else {
+					release.run();
+				}
 			}
 		}
 
@@ -214,37 +594,143 @@ public abstract class AbstractSocketFactory implements SocketFactory {
 		}
 
 		protected void retrieveCache(String lastEventIdsString) {
-			if (lastEventIdsString == null) {
+			if (lastEventIdsString == null || replay == null) {
 				return;
 			}
 
-			List<String> lastEventIds = Arrays.asList(lastEventIdsString.split(","));
-			for (String eventId : lastEventIds) {
-				for (Map<String, Object> message : cache) {
-					if (eventId.equals(message.get("id").toString())) {
-						cache.remove(message);
-					}
+			int lastEventId = 0;
+			for (int i = 0, id = 0; i <= lastEventIdsString.length(); i++) {
+				char c = i < lastEventIdsString.length() ? lastEventIdsString.charAt(i) : ',';
+				if (c >= '0' && c <= '9') {
+					id = id * 10 + (c - '0');
+				} else if (c == ',') {
+					lastEventId = Math.max(lastEventId, id);
+					id = 0;
 				}
 			}
+			replay.acknowledge(lastEventId);
+			flushReplay();
+		}
+
+		/**
+		 * Transmits the events the client hasn't acknowledged yet as a JSON
+		 * array. It is done by whichever thread is draining the socket so that
+		 * it never races with another write.
+		 */
+		protected void flushReplay() {
+			replaying.set(true);
+			drain();
+		}
 
-			if (!cache.isEmpty()) {
-				logger.debug("With the last event ids {}, flushing cached messages {}", lastEventIds, cache);
-				transmit(format(cache));
+		private void transmitReplay() {
+			String tail = replay != null ? replay.tail() : null;
+			if (tail != null) {
+				logger.debug("Flushing cached messages {} to Socket#{}", tail, id());
+				if (transport() == Transport.LONGPOLLJSONP) {
+					try {
+						tail = connection().callback + "(" + mapper.writeValueAsString(tail) + ");";
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+				transmit(tail);
 			}
 		}
-		
+
 		protected String streamContentType() {
-			return "text/" + ("sse".equals(param("transport")) ? "event-stream" : "plain");
+			return "text/" + (transport() == Transport.SSE ? "event-stream" : "plain");
 		}
 		
 		protected String longpollContentType() {
-			return "text/" + ("longpolljsonp".equals(param("transport")) ? "javascript" : "plain");
+			return "text/" + (transport() == Transport.LONGPOLLJSONP ? "javascript" : "plain");
 		}
 
 		abstract protected void transmit(String it);
 
+		protected boolean transmitsBytes() {
+			return false;
+		}
+
+		protected void transmit(byte[] it) {
+			transmit(new String(it, utf8));
+		}
+
 		abstract protected void disconnect();
 
 	}
 
+	private static class Connection {
+
+		final String id;
+		final Transport transport;
+		final long heartbeat;
+		final String callback;
+
+		Connection(Map<String, String> params) {
+			String id = params.get("id");
+			this.id = id != null ? id.intern() : null;
+			this.transport = Transport.of(params.get("transport"));
+			this.callback = params.get("callback");
+			long heartbeat = 0;
+			try {
+				heartbeat = Long.parseLong(params.get("heartbeat"));
+			} catch (NumberFormatException e) {}
+			this.heartbeat = heartbeat;
+		}
+
+	}
+
+	private static class Handles {
+
+		private int[] free = new int[16];
+		private int size;
+		private int next;
+
+		synchronized int acquire() {
+			return size > 0 ? free[--size] : ++next;
+		}
+
+		synchronized void release(int handle) {
+			if (size == free.length) {
+				free = Arrays.copyOf(free, size << 1);
+			}
+			free[size++] = handle;
+		}
+
+	}
+
+	protected static class Frame {
+
+		final String type;
+		final boolean reply;
+		final AtomicReference<Object> payload;
+
+		Frame(Message message, Object payload) {
+			this.type = message.type();
+			this.reply = message.reply();
+			this.payload = new AtomicReference<Object>(payload);
+		}
+
+		boolean coalescable() {
+			return !reply && !type.equals("reply");
+		}
+
+		Object take() {
+			return payload.getAndSet(null);
+		}
+
+		boolean replace(Object replacement) {
+			for (;;) {
+				Object current = payload.get();
+				if (current == null) {
+					return false;
+				}
+				if (payload.compareAndSet(current, replacement)) {
+					return true;
+				}
+			}
+		}
+
+	}
+
 }
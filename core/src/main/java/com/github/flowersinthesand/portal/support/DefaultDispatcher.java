@@ -15,25 +15,55 @@
  */
 package com.github.flowersinthesand.portal.support;
 
+import java.beans.ConstructorProperties;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
 
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.JavaType;
+import org.codehaus.jackson.util.TokenBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.flowersinthesand.portal.Async;
 import com.github.flowersinthesand.portal.Bean;
 import com.github.flowersinthesand.portal.Data;
+import com.github.flowersinthesand.portal.Destroy;
+import com.github.flowersinthesand.portal.Init;
+import com.github.flowersinthesand.portal.Options;
 import com.github.flowersinthesand.portal.Order;
 import com.github.flowersinthesand.portal.Reply;
 import com.github.flowersinthesand.portal.Socket;
@@ -43,14 +73,33 @@ import com.github.flowersinthesand.portal.spi.Dispatcher;
 @Bean("dispatcher")
 public class DefaultDispatcher implements Dispatcher {
 
+	private static final Class<?> COMPLETION_STAGE = classOf("java.util.concurrent.CompletionStage");
+	private static final Class<?> BI_CONSUMER = classOf("java.util.function.BiConsumer");
+	private static final Method WHEN_COMPLETE = COMPLETION_STAGE != null ? methodOf(COMPLETION_STAGE, "whenComplete", BI_CONSUMER) : null;
+
 	private final Logger logger = LoggerFactory.getLogger(DefaultDispatcher.class);
-	private Map<String, SortedSet<Dispatcher.Handler>> handlers = new LinkedHashMap<String, SortedSet<Dispatcher.Handler>>();
+	private volatile Map<String, Dispatcher.Handler[]> handlers = Collections.emptyMap();
+	private final Object lock = new Object();
+	private final ConcurrentMap<Socket, Mailbox> mailboxes = new ConcurrentHashMap<Socket, Mailbox>();
+	private final ConcurrentMap<Socket, Mailbox> asyncMailboxes = new ConcurrentHashMap<Socket, Mailbox>();
+	private volatile Executor asyncExecutor;
+	private ExecutorService ownAsyncExecutor;
+	private final Stats queueing = new Stats();
+	private final Stats handling = new Stats();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final ConcurrentMap<String, Stats> eventStats = new ConcurrentHashMap<String, Stats>();
+	private ObjectName objectName;
 	@Wire
 	private Evaluator evaluator;
+	@Wire
+	private Options options;
+	@Wire
+	private ObjectMapper mapper = new ObjectMapper();
 
 	@Override
 	public Set<Dispatcher.Handler> handlers(String type) {
-		return handlers.containsKey(type) ? Collections.unmodifiableSet(handlers.get(type)) : null;
+		Dispatcher.Handler[] array = handlers.get(type);
+		return array != null ? Collections.unmodifiableSet(new LinkedHashSet<Dispatcher.Handler>(Arrays.asList(array))) : null;
 	}
 
 	@Override
@@ -59,21 +108,67 @@ public class DefaultDispatcher implements Dispatcher {
 		
 		Dispatcher.Handler handler;
 		try {
-			handler = new DefaultHandler(bean, method);
+			handler = new DefaultHandler(type, bean, method);
 		} catch (IllegalArgumentException e) {
 			throw e;
 		}
 		
-		if (!handlers.containsKey(type)) {
-			handlers.put(type, new TreeSet<Dispatcher.Handler>(new Comparator<Dispatcher.Handler>() {
-				@Override
-				public int compare(Handler o1, Handler o2) {
-					return o1.order() > o2.order() ? 1 : -1;
+		synchronized (lock) {
+			Dispatcher.Handler[] array = handlers.get(type);
+			if (array == null) {
+				array = new Dispatcher.Handler[0];
+			}
+			
+			// A new handler precedes the existing ones of the same order
+			int index = 0;
+			while (index < array.length && array[index].order() < handler.order()) {
+				index++;
+			}
+			
+			Dispatcher.Handler[] copy = new Dispatcher.Handler[array.length + 1];
+			System.arraycopy(array, 0, copy, 0, index);
+			copy[index] = handler;
+			System.arraycopy(array, index, copy, index + 1, array.length - index);
+			swap(type, copy);
+		}
+	}
+
+	/**
+	 * Detaches the handler of the given method from the event. It is not a
+	 * part of {@link Dispatcher} so that its other implementations don't
+	 * break.
+	 *
+	 * @param type the event type
+	 * @param bean the bean which the method has been attached with
+	 * @param method the handler method
+	 */
+	public void off(String type, Object bean, Method method) {
+		logger.debug("Detaching the '{}' event from '{}'", type, method);
+		
+		synchronized (lock) {
+			Dispatcher.Handler[] array = handlers.get(type);
+			if (array == null) {
+				return;
+			}
+			
+			List<Dispatcher.Handler> list = new ArrayList<Dispatcher.Handler>(array.length);
+			for (Dispatcher.Handler handler : array) {
+				if (!(handler instanceof DefaultHandler && ((DefaultHandler) handler).is(bean, method))) {
+					list.add(handler);
 				}
-			}));
+			}
+			swap(type, list.isEmpty() ? null : list.toArray(new Dispatcher.Handler[list.size()]));
 		}
+	}
 
-		handlers.get(type).add(handler);
+	private void swap(String type, Dispatcher.Handler[] array) {
+		Map<String, Dispatcher.Handler[]> copy = new HashMap<String, Dispatcher.Handler[]>(handlers);
+		if (array == null) {
+			copy.remove(type);
+		} else {
+			copy.put(type, array);
+		}
+		handlers = Collections.unmodifiableMap(copy);
 	}
 
 	@Override
@@ -86,10 +181,208 @@ public class DefaultDispatcher implements Dispatcher {
 		fire(type, socket, data, 0);
 	}
 
+	/**
+	 * Also accepts the data as a Jackson {@link TokenBuffer}. Socket factories
+	 * pass it that way so that each handler binds it to its parameter type
+	 * without an intermediate map.
+	 */
 	@Override
-	public void fire(String type, final Socket socket, Object data, final int eventIdForReply) {
+	public void fire(String type, Socket socket, Object data, int eventIdForReply) {
+		Executor executor = options != null ? options.dispatchExecutor() : null;
+		if (executor == null) {
+			dispatch(type, socket, data, eventIdForReply);
+			return;
+		}
+
+		mailbox(mailboxes, socket, executor).post(new Event(type, data, eventIdForReply, null));
+	}
+
+	/**
+	 * Runs the given task once the events fired to the socket so far have
+	 * been dispatched, including the {@link Async} handlers they have
+	 * started.
+	 *
+	 * @param socket the socket
+	 * @param task the task to run
+	 */
+	public void execute(final Socket socket, final Runnable task) {
+		Runnable afterAsync = new Runnable() {
+			@Override
+			public void run() {
+				// A mailbox removes itself only when empty, so posting to one just removed still runs in order
+				Mailbox mailbox = asyncMailboxes.get(socket);
+				if (mailbox == null) {
+					task.run();
+				} else {
+					mailbox.post(new Event(null, null, 0, task));
+				}
+			}
+		};
+
+		Executor executor = options != null ? options.dispatchExecutor() : null;
+		if (executor == null) {
+			afterAsync.run();
+		} else {
+			mailbox(mailboxes, socket, executor).post(new Event(null, null, 0, afterAsync));
+		}
+	}
+
+	/**
+	 * Returns the time taken to run the handlers of each event type. It is
+	 * recorded only if {@link Options#metrics()} is enabled.
+	 *
+	 * @return the statistics by the event type
+	 */
+	public Map<String, Stats> byEvent() {
+		return Collections.unmodifiableMap(new TreeMap<String, Stats>(eventStats));
+	}
+
+	/**
+	 * Returns the time taken to run each handler by the event type and the
+	 * method like {@code message:com.acme.Chat#message(java.lang.String)}. It
+	 * is recorded only if {@link Options#metrics()} is enabled.
+	 *
+	 * @return the statistics by the handler
+	 */
+	public Map<String, Stats> byHandler() {
+		Map<String, Stats> map = new TreeMap<String, Stats>();
+		for (Dispatcher.Handler[] array : handlers.values()) {
+			for (Dispatcher.Handler handler : array) {
+				if (handler instanceof DefaultHandler) {
+					DefaultHandler defaultHandler = (DefaultHandler) handler;
+					map.put(defaultHandler.name, defaultHandler.stats);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@Init
+	public void init() {
+		if (options != null && options.metrics()) {
+			try {
+				ObjectName name = new ObjectName("com.github.flowersinthesand.portal:type=Dispatcher,name=" + ObjectName.quote(options.name()));
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), name);
+				objectName = name;
+			} catch (Exception e) {
+				logger.warn("Failed to register the dispatcher metrics to JMX", e);
+			}
+		}
+	}
+
+	@Destroy
+	public void destroy() {
+		synchronized (lock) {
+			if (ownAsyncExecutor != null) {
+				ownAsyncExecutor.shutdown();
+			}
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception e) {
+				logger.warn("Failed to unregister the dispatcher metrics from JMX", e);
+			}
+			objectName = null;
+		}
+	}
+
+	private Mailbox mailbox(ConcurrentMap<Socket, Mailbox> mailboxes, Socket socket, Executor executor) {
+		Mailbox mailbox = mailboxes.get(socket);
+		if (mailbox == null) {
+			Mailbox newMailbox = new Mailbox(mailboxes, socket, executor);
+			mailbox = mailboxes.putIfAbsent(socket, newMailbox);
+			if (mailbox == null) {
+				mailbox = newMailbox;
+			}
+		}
+		return mailbox;
+	}
+
+	/**
+	 * Returns the time events have waited in the mailboxes of sockets. It is
+	 * recorded only if {@link Options#metrics()} is enabled and events are
+	 * dispatched by an executor or handled by {@link Async} handlers.
+	 *
+	 * @return the statistics
+	 */
+	public Stats queueing() {
+		return queueing;
+	}
+
+	/**
+	 * Returns the time taken to run the handlers of an event except the ones
+	 * annotated with {@link Async}. It is recorded only if
+	 * {@link Options#metrics()} is enabled.
+	 *
+	 * @return the statistics
+	 */
+	public Stats handling() {
+		return handling;
+	}
+
+	/**
+	 * Returns the number of events waiting in the mailboxes of sockets.
+	 *
+	 * @return the number of pending events
+	 */
+	public int pending() {
+		return pending.get();
+	}
+
+	private Executor asyncExecutor() {
+		Executor executor = options != null ? options.asyncExecutor() : null;
+		if (executor != null) {
+			return executor;
+		}
+		if (asyncExecutor == null) {
+			synchronized (lock) {
+				if (asyncExecutor == null) {
+					ownAsyncExecutor = newAsyncExecutor();
+					asyncExecutor = ownAsyncExecutor;
+				}
+			}
+		}
+		return asyncExecutor;
+	}
+
+	private static Class<?> classOf(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static Method methodOf(Class<?> clazz, String name, Class<?>... paramTypes) {
+		try {
+			return clazz.getMethod(name, paramTypes);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static ExecutorService newAsyncExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			// Virtual threads are available since Java 21
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "portal-async-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	private void dispatch(String type, final Socket socket, final Object data, final int eventIdForReply) {
 		logger.debug("Firing {} event to Socket#{}", type, socket.id());
-		Reply.Fn reply = eventIdForReply > 0 ? new Reply.Fn() {
+		final Reply.Fn reply = eventIdForReply > 0 ? new Reply.Fn() {
 			@Override
 			public void done() {
 				done(null);
@@ -122,33 +415,407 @@ public class DefaultDispatcher implements Dispatcher {
 			}
 		} : null;
 				
-		if (handlers.containsKey(type)) {
-			for (Dispatcher.Handler handler : handlers.get(type)) {
-				logger.trace("Invoking handler {}", handler);
-				handler.handle(socket, data, reply);
+		Dispatcher.Handler[] array = handlers.get(type);
+		if (array != null) {
+			final boolean metrics = options != null && options.metrics();
+			long start = metrics ? System.nanoTime() : 0;
+			try {
+				for (final Dispatcher.Handler handler : array) {
+					if (handler instanceof DefaultHandler && ((DefaultHandler) handler).async) {
+						logger.trace("Invoking handler {} asynchronously", handler);
+						mailbox(asyncMailboxes, socket, asyncExecutor()).post(new Event(type, null, 0, new Runnable() {
+							@Override
+							public void run() {
+								invoke(handler, socket, data, reply, metrics);
+							}
+						}));
+					} else {
+						logger.trace("Invoking handler {}", handler);
+						invoke(handler, socket, data, reply, metrics);
+					}
+				}
+			} finally {
+				if (metrics) {
+					long elapsed = System.nanoTime() - start;
+					handling.record(elapsed);
+					eventStats(type).record(elapsed);
+				}
+			}
+		}
+	}
+
+	private void invoke(Dispatcher.Handler handler, Socket socket, Object data, Reply.Fn reply, boolean metrics) {
+		if (!metrics || !(handler instanceof DefaultHandler)) {
+			handler.handle(socket, data, reply);
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			handler.handle(socket, data, reply);
+		} finally {
+			((DefaultHandler) handler).stats.record(System.nanoTime() - start);
+		}
+	}
+
+	private Stats eventStats(String type) {
+		Stats stats = eventStats.get(type);
+		if (stats == null) {
+			Stats newStats = new Stats();
+			stats = eventStats.putIfAbsent(type, newStats);
+			if (stats == null) {
+				stats = newStats;
+			}
+		}
+		return stats;
+	}
+
+	class Metrics implements DispatcherMXBean {
+
+		@Override
+		public int getPending() {
+			return pending();
+		}
+
+		@Override
+		public Summary getQueueing() {
+			return queueing.summary("queueing");
+		}
+
+		@Override
+		public Summary getHandling() {
+			return handling.summary("handling");
+		}
+
+		@Override
+		public List<Summary> getEvents() {
+			return summaries(byEvent());
+		}
+
+		@Override
+		public List<Summary> getHandlers() {
+			return summaries(byHandler());
+		}
+
+		private List<Summary> summaries(Map<String, Stats> map) {
+			List<Summary> list = new ArrayList<Summary>(map.size());
+			for (Map.Entry<String, Stats> entry : map.entrySet()) {
+				list.add(entry.getValue().summary(entry.getKey()));
+			}
+			return list;
+		}
+
+	}
+
+	/**
+	 * Sends a reply through {@link DefaultDispatcher#execute(Socket, Runnable)}
+	 * so that it is ordered with the other work of the socket whichever
+	 * thread it comes from.
+	 */
+	class ExecutedReply implements Reply.Fn {
+
+		final Socket socket;
+		final Reply.Fn reply;
+
+		ExecutedReply(Socket socket, Reply.Fn reply) {
+			this.socket = socket;
+			this.reply = reply;
+		}
+
+		@Override
+		public void done() {
+			execute(socket, new Runnable() {
+				@Override
+				public void run() {
+					reply.done();
+				}
+			});
+		}
+
+		@Override
+		public void done(final Object data) {
+			execute(socket, new Runnable() {
+				@Override
+				public void run() {
+					reply.done(data);
+				}
+			});
+		}
+
+		@Override
+		public void fail(final Throwable error) {
+			execute(socket, new Runnable() {
+				@Override
+				public void run() {
+					reply.fail(error);
+				}
+			});
+		}
+
+	}
+
+	static class Event {
+
+		final String type;
+		final Object data;
+		final int eventIdForReply;
+		final Runnable task;
+		final long postedAt = System.nanoTime();
+
+		Event(String type, Object data, int eventIdForReply, Runnable task) {
+			this.type = type;
+			this.data = data;
+			this.eventIdForReply = eventIdForReply;
+			this.task = task;
+		}
+
+	}
+
+	/**
+	 * Events of a socket which are dispatched one by one in a worker thread
+	 * so that handlers observe them in the order they have been fired.
+	 */
+	class Mailbox implements Runnable {
+
+		static final int BATCH = 64;
+
+		final ConcurrentMap<Socket, Mailbox> mailboxes;
+		final Socket socket;
+		final Executor executor;
+		final Queue<Event> events = new ConcurrentLinkedQueue<Event>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Mailbox(ConcurrentMap<Socket, Mailbox> mailboxes, Socket socket, Executor executor) {
+			this.mailboxes = mailboxes;
+			this.socket = socket;
+			this.executor = executor;
+		}
+
+		void post(Event event) {
+			pending.incrementAndGet();
+			events.add(event);
+			schedule();
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					logger.warn("Dispatching events to Socket#{} in the calling thread", socket.id());
+					run();
+				}
 			}
 		}
+
+		@Override
+		public void run() {
+			// Yields the worker after a batch so that a busy socket can't starve others
+			boolean metrics = options != null && options.metrics();
+			Event event;
+			for (int i = 0; i < BATCH && (event = events.poll()) != null; i++) {
+				pending.decrementAndGet();
+				if (metrics) {
+					queueing.record(System.nanoTime() - event.postedAt);
+				}
+				try {
+					if (event.task != null) {
+						event.task.run();
+					} else {
+						dispatch(event.type, socket, event.data, event.eventIdForReply);
+					}
+				} catch (RuntimeException e) {
+					logger.error("Failed to dispatch the " + event.type + " event to Socket#" + socket.id(), e);
+				}
+			}
+			scheduled.set(false);
+
+			if (!events.isEmpty()) {
+				schedule();
+			} else if (!socket.opened()) {
+				mailboxes.remove(socket, this);
+			}
+		}
+
+	}
+
+	/**
+	 * Lock-free count, total, maximum and histogram of durations in
+	 * nanoseconds. Like HdrHistogram, each power of two range is split into 16
+	 * linear buckets so that percentiles are within about 6% of the true value.
+	 */
+	public static class Stats {
+
+		private static final int SUB_BITS = 4;
+		private static final int SUB = 1 << SUB_BITS;
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB);
+
+		void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			buckets.incrementAndGet(index(nanos));
+			long current;
+			while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos));
+		}
+
+		/**
+		 * Returns the duration which the given percent of the recorded ones
+		 * don't exceed.
+		 *
+		 * @param percent the percent between 0 and 100
+		 * @param unit the unit of the duration
+		 * @return the duration
+		 */
+		public long percentile(double percent, TimeUnit unit) {
+			long count = this.count.get();
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					return unit.convert(Math.min(highest(i), max.get()), TimeUnit.NANOSECONDS);
+				}
+			}
+			return max(unit);
+		}
+
+		Summary summary(String name) {
+			return new Summary(name, count(), micros(mean(TimeUnit.NANOSECONDS)), micros(percentile(50, TimeUnit.NANOSECONDS)),
+				micros(percentile(99, TimeUnit.NANOSECONDS)), micros(percentile(99.9, TimeUnit.NANOSECONDS)), micros(max(TimeUnit.NANOSECONDS)));
+		}
+
+		private static double micros(long nanos) {
+			return nanos / 1000.0;
+		}
+
+		private static int index(long value) {
+			if (value < SUB) {
+				return (int) value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+			return (shift + 1) * SUB + (int) ((value >>> shift) & (SUB - 1));
+		}
+
+		private static long highest(int index) {
+			if (index < SUB) {
+				return index;
+			}
+			int shift = index / SUB - 1;
+			return ((long) (SUB + index % SUB + 1) << shift) - 1;
+		}
+
+		public long count() {
+			return count.get();
+		}
+
+		public long total(TimeUnit unit) {
+			return unit.convert(total.get(), TimeUnit.NANOSECONDS);
+		}
+
+		public long mean(TimeUnit unit) {
+			long count = this.count.get();
+			return count == 0 ? 0 : unit.convert(total.get() / count, TimeUnit.NANOSECONDS);
+		}
+
+		public long max(TimeUnit unit) {
+			return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return "Stats{count=" + count() + ", mean=" + mean(TimeUnit.MICROSECONDS) + "us, p99=" + percentile(99, TimeUnit.MICROSECONDS)
+				+ "us, max=" + max(TimeUnit.MICROSECONDS) + "us}";
+		}
+
+	}
+
+	/**
+	 * An immutable snapshot of {@link Stats} in microseconds for JMX.
+	 */
+	public static class Summary {
+
+		private final String name;
+		private final long count;
+		private final double mean;
+		private final double p50;
+		private final double p99;
+		private final double p999;
+		private final double max;
+
+		@ConstructorProperties({ "name", "count", "mean", "p50", "p99", "p999", "max" })
+		public Summary(String name, long count, double mean, double p50, double p99, double p999, double max) {
+			this.name = name;
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public double getP50() {
+			return p50;
+		}
+
+		public double getP99() {
+			return p99;
+		}
+
+		public double getP999() {
+			return p999;
+		}
+
+		public double getMax() {
+			return max;
+		}
+
 	}
 
 	@SuppressWarnings("unchecked")
 	class DefaultHandler implements Dispatcher.Handler {
 
 		int order = 0;
-		ObjectMapper mapper = new ObjectMapper();
 		Object bean;
 		Method method;
+		String name;
+		Stats stats = new Stats();
 		Param[] params;
 		boolean replyOnMethod;
+		boolean async;
 		Class<?>[] throwables;
+		Invoker invoker;
 		
-		DefaultHandler(Object bean, Method method) {
+		DefaultHandler(String type, Object bean, Method method) {
 			this.bean = bean;
 			this.method = method;
+			this.name = name(type, method);
 			
 			if (method.isAnnotationPresent(Order.class)) {
 				this.order = method.getAnnotation(Order.class).value();
 			}
 			
+			async = method.isAnnotationPresent(Async.class);
 			replyOnMethod = method.isAnnotationPresent(Reply.class);
 			if (replyOnMethod) {
 				throwables = method.getAnnotation(Reply.class).failFor();
@@ -202,7 +869,7 @@ public class DefaultDispatcher implements Dispatcher {
 					}
 					socketIndex = i;
 				} else if (arg instanceof DataParam) {
-					String value = ((DataParam) arg).ann.value();
+					String value = ((DataParam) arg).expression;
 					if (expressions.contains(value)) {
 						throw new IllegalArgumentException("@Data(\"" + value + "\") is duplicated in paramters of '" + method + "'");
 					}
@@ -217,6 +884,8 @@ public class DefaultDispatcher implements Dispatcher {
 					}
 				}
 			}
+			
+			invoker = invoker();
 		}
 
 		@Override
@@ -224,41 +893,234 @@ public class DefaultDispatcher implements Dispatcher {
 			return order;
 		}
 
+		// Overloads and a method attached to several events are told apart
+		private String name(String type, Method method) {
+			StringBuilder builder = new StringBuilder(type).append(':').append(method.getDeclaringClass().getName()).append('#')
+				.append(method.getName()).append('(');
+			Class<?>[] paramTypes = method.getParameterTypes();
+			for (int i = 0; i < paramTypes.length; i++) {
+				if (i > 0) {
+					builder.append(',');
+				}
+				builder.append(paramTypes[i].getName());
+			}
+			return builder.append(')').toString();
+		}
+
+		boolean is(Object bean, Method method) {
+			return this.bean == bean && this.method.equals(method);
+		}
+
+		private Invoker invoker() {
+			MethodAccessor accessor = MethodAccessor.of(method);
+			switch (params.length) {
+			case 0:
+				return new Invoker0(accessor);
+			case 1:
+				return new Invoker1(accessor, params[0]);
+			case 2:
+				return new Invoker2(accessor, params[0], params[1]);
+			case 3:
+				return new Invoker3(accessor, params[0], params[1], params[2]);
+			default:
+				return new InvokerN(accessor, params);
+			}
+		}
+
 		@Override
 		public void handle(Socket socket, Object data, Reply.Fn reply) {
-			Object[] args = new Object[params.length];
-			for (int i = 0; i < params.length; i++) {
-				args[i] = params[i].resolve(socket, data, reply);
+			Object result;
+			try {
+				result = invoker.invoke(socket, data, reply);
+			} catch (InvocationTargetException e) {
+				if (!fail(reply, e.getCause())) {
+					throw new RuntimeException(e);
+				}
+				return;
 			}
 
-			try {
-				Object result = method.invoke(bean, args);
-				if (replyOnMethod) {
+			if (replyOnMethod) {
+				// A future may complete in any thread
+				if (COMPLETION_STAGE != null && COMPLETION_STAGE.isInstance(result)) {
+					whenComplete(result, new ExecutedReply(socket, reply));
+				} else if (result instanceof Future) {
+					whenDone((Future<?>) result, new ExecutedReply(socket, reply));
+				} else {
 					reply.done(result);
 				}
-			} catch (InvocationTargetException e) {
-				boolean handled = false;
-				Throwable ex = e.getCause();
-				
-				if (throwables != null) {
-					for (Class<?> throwable : throwables) {
-						if (ex.getClass().isAssignableFrom(throwable)) {
-							reply.fail(ex);
-							handled = true;
-							break;
-						}
+			}
+		}
+
+		private boolean fail(Reply.Fn reply, Throwable ex) {
+			if (throwables != null) {
+				for (Class<?> throwable : throwables) {
+					if (ex.getClass().isAssignableFrom(throwable)) {
+						reply.fail(ex);
+						return true;
 					}
 				}
-				if (!handled) {
-					throw new RuntimeException(e);
+			}
+			return false;
+		}
+
+		private void complete(Reply.Fn reply, Object result, Throwable error) {
+			if (error == null) {
+				reply.done(result);
+				return;
+			}
+
+			Throwable ex = error;
+			while ((ex instanceof ExecutionException || ex.getClass().getName().equals("java.util.concurrent.CompletionException"))
+				&& ex.getCause() != null) {
+				ex = ex.getCause();
+			}
+			if (!fail(reply, ex)) {
+				// There is no caller to throw it to so the client is told instead
+				logger.error("Failed to complete the reply of " + method, error);
+				reply.fail(ex);
+			}
+		}
+
+		private void whenComplete(Object stage, final Reply.Fn reply) {
+			// CompletionStage and BiConsumer are used reflectively as they are not available in Java 6
+			Object action = Proxy.newProxyInstance(DefaultDispatcher.class.getClassLoader(), new Class<?>[] { BI_CONSUMER }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+					if (m.getDeclaringClass() == Object.class) {
+						return m.invoke(this, args);
+					}
+					complete(reply, args[0], (Throwable) args[1]);
+					return null;
 				}
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(e);
+			});
+			try {
+				WHEN_COMPLETE.invoke(stage, action);
 			} catch (IllegalAccessException e) {
 				throw new RuntimeException(e);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		private void whenDone(final Future<?> future, final Reply.Fn reply) {
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					Object result = null;
+					Throwable error = null;
+					try {
+						result = future.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						error = e;
+					} catch (Throwable e) {
+						error = e;
+					}
+					complete(reply, result, error);
+				}
+			};
+
+			// A plain future can only be waited for so it takes a thread of the async executor until it is done
+			if (future.isDone()) {
+				task.run();
+			} else {
+				asyncExecutor().execute(task);
 			}
 		}
 		
+		// Resolves the arguments before calling the method so that they don't need an array
+		abstract class Invoker {
+			abstract Object invoke(Socket socket, Object data, Reply.Fn reply) throws InvocationTargetException;
+		}
+
+		class Invoker0 extends Invoker {
+			final MethodAccessor accessor;
+
+			Invoker0(MethodAccessor accessor) {
+				this.accessor = accessor;
+			}
+
+			@Override
+			Object invoke(Socket socket, Object data, Reply.Fn reply) throws InvocationTargetException {
+				return accessor.invoke(bean);
+			}
+		}
+
+		class Invoker1 extends Invoker {
+			final MethodAccessor accessor;
+			final Param param0;
+
+			Invoker1(MethodAccessor accessor, Param param0) {
+				this.accessor = accessor;
+				this.param0 = param0;
+			}
+
+			@Override
+			Object invoke(Socket socket, Object data, Reply.Fn reply) throws InvocationTargetException {
+				return accessor.invoke(bean, param0.resolve(socket, data, reply));
+			}
+		}
+
+		class Invoker2 extends Invoker {
+			final MethodAccessor accessor;
+			final Param param0;
+			final Param param1;
+
+			Invoker2(MethodAccessor accessor, Param param0, Param param1) {
+				this.accessor = accessor;
+				this.param0 = param0;
+				this.param1 = param1;
+			}
+
+			@Override
+			Object invoke(Socket socket, Object data, Reply.Fn reply) throws InvocationTargetException {
+				Object arg0 = param0.resolve(socket, data, reply);
+				Object arg1 = param1.resolve(socket, data, reply);
+				return accessor.invoke(bean, arg0, arg1);
+			}
+		}
+
+		class Invoker3 extends Invoker {
+			final MethodAccessor accessor;
+			final Param param0;
+			final Param param1;
+			final Param param2;
+
+			Invoker3(MethodAccessor accessor, Param param0, Param param1, Param param2) {
+				this.accessor = accessor;
+				this.param0 = param0;
+				this.param1 = param1;
+				this.param2 = param2;
+			}
+
+			@Override
+			Object invoke(Socket socket, Object data, Reply.Fn reply) throws InvocationTargetException {
+				Object arg0 = param0.resolve(socket, data, reply);
+				Object arg1 = param1.resolve(socket, data, reply);
+				Object arg2 = param2.resolve(socket, data, reply);
+				return accessor.invoke(bean, arg0, arg1, arg2);
+			}
+		}
+
+		class InvokerN extends Invoker {
+			final MethodAccessor accessor;
+			final Param[] params;
+
+			InvokerN(MethodAccessor accessor, Param[] params) {
+				this.accessor = accessor;
+				this.params = params;
+			}
+
+			@Override
+			Object invoke(Socket socket, Object data, Reply.Fn reply) throws InvocationTargetException {
+				Object[] args = new Object[params.length];
+				for (int i = 0; i < params.length; i++) {
+					args[i] = params[i].resolve(socket, data, reply);
+				}
+				return accessor.invoke(bean, args);
+			}
+		}
+
 		abstract class Param {
 			abstract Object resolve(Socket socket, Object data, Reply.Fn reply);
 		}
@@ -271,25 +1133,40 @@ public class DefaultDispatcher implements Dispatcher {
 		}
 
 		class DataParam extends Param {
-			Class<?> type;
-			Data ann;
+			JavaType type;
+			JavaType objectType;
+			String expression;
 
 			public DataParam(Class<?> type, Data ann) {
-				this.type = type;
-				this.ann = ann;
+				this.type = mapper.constructType(type);
+				this.objectType = mapper.constructType(Object.class);
+				this.expression = ann.value();
 			}
 
 			@Override
 			Object resolve(Socket socket, Object data, Reply.Fn reply) {
-				if (!ann.value().equals("")) {
+				if (expression.length() != 0) {
+					if (data instanceof TokenBuffer) {
+						data = read((TokenBuffer) data, objectType);
+					}
 					if (!(data instanceof Map)) {
-						throw new IllegalArgumentException("@Data(\"" + ann.value() + "\") must work with Map not '" + data + "'");
+						throw new IllegalArgumentException("@Data(\"" + expression + "\") must work with Map not '" + data + "'");
 					}
-					data = evaluator.evaluate((Map<String, Object>) data, ann.value());
+					data = evaluator.evaluate((Map<String, Object>) data, expression);
+				} else if (data instanceof TokenBuffer) {
+					return read((TokenBuffer) data, type);
 				}
 				
 				return mapper.convertValue(data, type);
 			}
+
+			private Object read(TokenBuffer buffer, JavaType valueType) {
+				try {
+					return mapper.readValue(buffer.asParser(), valueType);
+				} catch (IOException e) {
+					throw new IllegalArgumentException(e);
+				}
+			}
 		}
 
 		class ReplyParam extends Param {
@@ -15,22 +15,50 @@
  */
 package com.github.flowersinthesand.portal.support;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.github.flowersinthesand.portal.Bean;
+import com.github.flowersinthesand.portal.Options;
 import com.github.flowersinthesand.portal.Room;
 import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.Wire;
 import com.github.flowersinthesand.portal.spi.RoomFactory;
+import com.github.flowersinthesand.portal.support.AbstractSocketFactory.AbstractSocket;
 
 @Bean("roomFactory")
 public class DefaultRoomFactory implements RoomFactory {
 
+	// A few shards at least so that a broadcast can be spread over the executor on a single core too
+	private static final int SHARDS = Integer.highestOneBit(Math.max(4, Runtime.getRuntime().availableProcessors() * 2 - 1));
+	private final Logger logger = LoggerFactory.getLogger(DefaultRoomFactory.class);
+	@Wire
+	private Options options;
+	@Wire
+	private ObjectMapper mapper = new ObjectMapper();
 	private Map<String, Room> rooms = new ConcurrentHashMap<String, Room>();
+	private ConcurrentMap<Socket, Set<Room>> memberships = new ConcurrentHashMap<Socket, Set<Room>>();
 
 	@Override
 	public Set<Room> all() {
@@ -43,7 +71,7 @@ public class DefaultRoomFactory implements RoomFactory {
 			throw new IllegalStateException("Room '" + name + "' already exists");
 		}
 
-		Room room = new DefaultRoom(name);
+		Room room = new DefaultRoom(name, true);
 		rooms.put(name, room);
 
 		return room;
@@ -54,19 +82,43 @@ public class DefaultRoomFactory implements RoomFactory {
 		return rooms.get(name);
 	}
 
+	/**
+	 * Returns the rooms the given socket belongs to. It is not a part of
+	 * {@link RoomFactory} so that other implementations don't break.
+	 *
+	 * @param socket the socket
+	 * @return an unmodifiable view of the rooms
+	 */
+	public Set<Room> rooms(Socket socket) {
+		Set<Room> set = memberships.get(socket);
+		return set == null ? Collections.<Room> emptySet() : Collections.unmodifiableSet(set);
+	}
+
 	@Override
 	public void remove(String name) {
-		rooms.remove(name);
+		Room room = rooms.remove(name);
+		if (room instanceof DefaultRoom) {
+			DefaultRoom defaultRoom = (DefaultRoom) room;
+			defaultRoom.indexed = false;
+			for (Socket socket : defaultRoom.sockets) {
+				defaultRoom.unindex(socket);
+			}
+		}
 	}
 
-	static class DefaultRoom implements Room {
+	class DefaultRoom implements Room {
 
 		private String name;
-		private Set<Socket> sockets = new CopyOnWriteArraySet<Socket>();
+		// Only rooms opened by the factory are recorded in the memberships
+		private volatile boolean indexed;
+		private Set<Socket>[] shards = shards();
+		private AtomicInteger size = new AtomicInteger();
+		private Set<Socket> sockets = Collections.unmodifiableSet(new Members());
 		private Map<String, Object> attrs = new ConcurrentHashMap<String, Object>();
 
-		public DefaultRoom(String name) {
+		public DefaultRoom(String name, boolean indexed) {
 			this.name = name;
+			this.indexed = indexed;
 		}
 
 		@Override
@@ -88,8 +140,9 @@ public class DefaultRoomFactory implements RoomFactory {
 		@Override
 		public Room add(Socket... sockets) {
 			for (Socket socket : sockets) {
-				if (socket.opened()) {
-					this.sockets.add(socket);
+				if (socket.opened() && shard(socket).add(socket)) {
+					size.incrementAndGet();
+					index(socket);
 				}
 			}
 			return this;
@@ -102,18 +155,21 @@ public class DefaultRoomFactory implements RoomFactory {
 
 		@Override
 		public Room in(Socket... sockets) {
-			return new DefaultRoom(name + ".in").add(this).add(sockets);
+			return new View(this, true, operand(sockets));
 		}
 
 		@Override
 		public Room in(Room room) {
-			return in(room.sockets().toArray(new Socket[] {}));
+			return new View(this, true, room.sockets());
 		}
 
 		@Override
 		public Room remove(Socket... sockets) {
 			for (Socket socket : sockets) {
-				this.sockets.remove(socket);
+				if (shard(socket).remove(socket)) {
+					size.decrementAndGet();
+					unindex(socket);
+				}
 			}
 			return this;
 		}
@@ -125,12 +181,12 @@ public class DefaultRoomFactory implements RoomFactory {
 
 		@Override
 		public Room out(Socket... sockets) {
-			return new DefaultRoom(name + ".out").add(this).remove(sockets);
+			return new View(this, false, operand(sockets));
 		}
 
 		@Override
 		public Room out(Room room) {
-			return out(room.sockets().toArray(new Socket[] {}));
+			return new View(this, false, room.sockets());
 		}
 
 		@Override
@@ -140,36 +196,416 @@ public class DefaultRoomFactory implements RoomFactory {
 
 		@Override
 		public Room send(String event, Object data) {
-			for (Socket s : sockets) {
-				s.send(event, data);
+			return send(event, data, null);
+		}
+
+		Room send(String event, Object data, Set<Socket> excluded) {
+			Executor executor = options != null ? options.broadcastExecutor() : null;
+			if (executor == null || size.get() < options.broadcastThreshold()) {
+				Message message = null;
+				for (Set<Socket> shard : shards) {
+					message = DefaultRoomFactory.this.send(shard, excluded, event, data, message);
+				}
+			} else {
+				fanout(executor, excluded, event, data);
 			}
 			return this;
 		}
 
+		private void fanout(Executor executor, final Set<Socket> excluded, final String event, final Object data) {
+			final Message message = new Message(mapper, event, data, false);
+			final CountDownLatch latch = new CountDownLatch(shards.length);
+			final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+			List<Runnable> tasks = new ArrayList<Runnable>(shards.length);
+			for (final Set<Socket> shard : shards) {
+				tasks.add(new Runnable() {
+					AtomicBoolean claimed = new AtomicBoolean();
+
+					@Override
+					public void run() {
+						if (!claimed.compareAndSet(false, true)) {
+							return;
+						}
+						try {
+							DefaultRoomFactory.this.send(shard, excluded, event, data, message);
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							latch.countDown();
+						}
+					}
+				});
+			}
+
+			for (int i = 1; i < tasks.size(); i++) {
+				try {
+					executor.execute(tasks.get(i));
+				} catch (RejectedExecutionException e) {
+					logger.debug("Sending to a shard of room '{}' in the calling thread", name);
+				}
+			}
+			// The caller takes over the shards no worker has claimed yet so that
+			// an exhausted executor can't make it wait forever
+			for (Runnable task : tasks) {
+				task.run();
+			}
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+		}
+
 		@Override
 		public Set<Socket> sockets() {
-			return Collections.unmodifiableSet(sockets);
+			return sockets;
 		}
 
 		@Override
 		public int size() {
-			return sockets.size();
+			return size.get();
 		}
 
 		@Override
 		public Room close() {
-			for (Socket s : sockets) {
-				s.close();
+			for (Set<Socket> shard : shards) {
+				for (Socket s : shard) {
+					s.close();
+					unindex(s);
+				}
+				shard.clear();
 			}
-			sockets.clear();
+			size.set(0);
 			attrs.clear();
 			return this;
 		}
 
 		boolean closed() {
-			return sockets.isEmpty() && attrs.isEmpty();
+			return size.get() == 0 && attrs.isEmpty();
+		}
+
+		private void index(Socket socket) {
+			if (!indexed) {
+				return;
+			}
+			for (;;) {
+				Set<Room> set = memberships.get(socket);
+				if (set == null) {
+					Set<Room> newSet = Collections.newSetFromMap(new ConcurrentHashMap<Room, Boolean>(4, 0.75f, 1));
+					set = memberships.putIfAbsent(socket, newSet);
+					if (set == null) {
+						set = newSet;
+					}
+				}
+				// Retries if the set has been dropped as empty in the meantime
+				synchronized (set) {
+					if (memberships.get(socket) == set) {
+						set.add(this);
+						return;
+					}
+				}
+			}
+		}
+
+		private void unindex(Socket socket) {
+			Set<Room> set = memberships.get(socket);
+			if (set != null) {
+				synchronized (set) {
+					if (set.remove(this) && set.isEmpty()) {
+						memberships.remove(socket, set);
+					}
+				}
+			}
+		}
+
+		private Set<Socket> shard(Socket socket) {
+			int h = socket.hashCode();
+			return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+		}
+
+		class Members extends AbstractSet<Socket> {
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof Socket && shard((Socket) o).contains(o);
+			}
+
+			@Override
+			public Iterator<Socket> iterator() {
+				return new Iterator<Socket>() {
+					int index;
+					Iterator<Socket> current = shards[0].iterator();
+
+					@Override
+					public boolean hasNext() {
+						while (!current.hasNext() && index < shards.length - 1) {
+							current = shards[++index].iterator();
+						}
+						return current.hasNext();
+					}
+
+					@Override
+					public Socket next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return current.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size.get();
+			}
+
+		}
+
+	}
+
+	/**
+	 * A lazy union or difference of a room and a set of sockets which doesn't
+	 * copy the members of the room. Once it is modified, the view turns into
+	 * a room of its own holding the members at that time.
+	 */
+	class View implements Room {
+
+		private final String name;
+		private final Room base;
+		private final boolean in;
+		private final Set<Socket> operand;
+		private final Set<Socket> sockets = Collections.unmodifiableSet(new Members());
+		private volatile Room detached;
+
+		View(Room base, boolean in, Set<Socket> operand) {
+			this.name = base.name() + (in ? ".in" : ".out");
+			this.base = base;
+			this.in = in;
+			this.operand = operand;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public Object get(String key) {
+			return detached != null ? detached.get(key) : null;
+		}
+
+		@Override
+		public Room set(String key, Object value) {
+			detach().set(key, value);
+			return this;
+		}
+
+		@Override
+		public Room add(Socket... sockets) {
+			detach().add(sockets);
+			return this;
+		}
+
+		@Override
+		public Room add(Room room) {
+			detach().add(room);
+			return this;
+		}
+
+		@Override
+		public Room in(Socket... sockets) {
+			return new View(this, true, operand(sockets));
+		}
+
+		@Override
+		public Room in(Room room) {
+			return new View(this, true, room.sockets());
+		}
+
+		@Override
+		public Room remove(Socket... sockets) {
+			detach().remove(sockets);
+			return this;
+		}
+
+		@Override
+		public Room remove(Room room) {
+			detach().remove(room);
+			return this;
+		}
+
+		@Override
+		public Room out(Socket... sockets) {
+			return new View(this, false, operand(sockets));
+		}
+
+		@Override
+		public Room out(Room room) {
+			return new View(this, false, room.sockets());
+		}
+
+		@Override
+		public Room send(String event) {
+			return send(event, null);
+		}
+
+		@Override
+		public Room send(String event, Object data) {
+			Room room = detached;
+			if (room != null) {
+				room.send(event, data);
+			} else if (base instanceof DefaultRoom && !in) {
+				((DefaultRoom) base).send(event, data, operand);
+			} else {
+				DefaultRoomFactory.this.send(sockets, null, event, data, null);
+			}
+			return this;
+		}
+
+		@Override
+		public Set<Socket> sockets() {
+			Room room = detached;
+			return room != null ? room.sockets() : sockets;
+		}
+
+		@Override
+		public int size() {
+			Room room = detached;
+			if (room != null) {
+				return room.size();
+			}
+
+			int size = base.size();
+			for (Socket socket : operand) {
+				if (in && !base.sockets().contains(socket) && socket.opened()) {
+					size++;
+				} else if (!in && base.sockets().contains(socket)) {
+					size--;
+				}
+			}
+			return size;
 		}
 
+		@Override
+		public Room close() {
+			if (detached == null) {
+				for (Socket socket : sockets.toArray(new Socket[] {})) {
+					socket.close();
+				}
+			}
+			detach().close();
+			return this;
+		}
+
+		private synchronized Room detach() {
+			if (detached == null) {
+				detached = new DefaultRoom(name, false).add(sockets.toArray(new Socket[] {}));
+			}
+			return detached;
+		}
+
+		class Members extends AbstractSet<Socket> {
+
+			@Override
+			public boolean contains(Object o) {
+				return in ?
+					base.sockets().contains(o) || (operand.contains(o) && ((Socket) o).opened()) :
+					base.sockets().contains(o) && !operand.contains(o);
+			}
+
+			@Override
+			public Iterator<Socket> iterator() {
+				return new Iterator<Socket>() {
+					Iterator<Socket> current = base.sockets().iterator();
+					boolean extra;
+					Socket next;
+
+					@Override
+					public boolean hasNext() {
+						while (next == null) {
+							if (!current.hasNext()) {
+								if (!in || extra) {
+									return false;
+								}
+								current = operand.iterator();
+								extra = true;
+								continue;
+							}
+
+							Socket socket = current.next();
+							if (!extra ?
+								in || !operand.contains(socket) :
+								socket.opened() && !base.sockets().contains(socket)) {
+								next = socket;
+							}
+						}
+						return true;
+					}
+
+					@Override
+					public Socket next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Socket socket = next;
+						next = null;
+						return socket;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return View.this.size();
+			}
+
+		}
+
+	}
+
+	private static Set<Socket> operand(Socket... sockets) {
+		return sockets.length == 1 ?
+			Collections.singleton(sockets[0]) :
+			new HashSet<Socket>(Arrays.asList(sockets));
+	}
+
+	private Message send(Iterable<Socket> sockets, Set<Socket> excluded, String event, Object data, Message message) {
+		for (Socket s : sockets) {
+			if (excluded != null && excluded.contains(s)) {
+				continue;
+			}
+			if (s instanceof AbstractSocket) {
+				if (message == null) {
+					message = new Message(mapper, event, data, false);
+				}
+				((AbstractSocket) s).send(message);
+			} else {
+				s.send(event, data);
+			}
+		}
+		return message;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<Socket>[] shards() {
+		Set<Socket>[] shards = new Set[SHARDS];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+		}
+		return shards;
 	}
 
 }
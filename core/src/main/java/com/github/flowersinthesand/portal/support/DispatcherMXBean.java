@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+import java.util.List;
+
+import com.github.flowersinthesand.portal.support.DefaultDispatcher.Summary;
+
+/**
+ * The metrics of {@link DefaultDispatcher} registered to the platform MBean
+ * server when {@code Options.metrics} is enabled.
+ */
+public interface DispatcherMXBean {
+
+	int getPending();
+
+	Summary getQueueing();
+
+	Summary getHandling();
+
+	List<Summary> getEvents();
+
+	List<Summary> getHandlers();
+
+}
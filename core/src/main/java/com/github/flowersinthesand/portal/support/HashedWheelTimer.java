@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.flowersinthesand.portal.Bean;
+import com.github.flowersinthesand.portal.Destroy;
+import com.github.flowersinthesand.portal.Init;
+import com.github.flowersinthesand.portal.Options;
+import com.github.flowersinthesand.portal.Wire;
+
+/**
+ * A timer for a large number of coarse timeouts like heartbeats and replies.
+ * Scheduling, renewing and cancelling a timeout are O(1) and never touch the
+ * worker thread which advances the wheel one bucket every tick. A timeout
+ * whose deadline has been renewed is moved to its new bucket when the wheel
+ * reaches the old one. The tasks of expired timeouts run in a small pool of
+ * the timer so that a slow task can't hold up the wheel.
+ */
+@Bean("timer")
+public class HashedWheelTimer {
+
+	private final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+	private long tickNanos;
+	private final List<Timeout>[] wheel;
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final AtomicInteger size = new AtomicInteger();
+	private volatile boolean stopped;
+	private volatile long startTime;
+	private volatile Thread worker;
+	private ExecutorService executor;
+	private long tick;
+	@Wire
+	private Options options;
+
+	public HashedWheelTimer() {
+		this(100, TimeUnit.MILLISECONDS, 512);
+	}
+
+	@SuppressWarnings("unchecked")
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new List[Integer.highestOneBit(Math.max(1, wheelSize * 2 - 1))];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new ArrayList<Timeout>();
+		}
+	}
+
+	@Init
+	public void init() {
+		if (options != null && options.timerTick() > 0) {
+			tickNanos = TimeUnit.MILLISECONDS.toNanos(options.timerTick());
+		}
+	}
+
+	/**
+	 * Returns the duration of a tick. A timeout expires on the first tick
+	 * after its deadline.
+	 *
+	 * @param unit the unit of the returned duration
+	 * @return the duration of a tick in the given unit
+	 */
+	public long tickDuration(TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (stopped) {
+			throw new IllegalStateException("Timer has been stopped");
+		}
+		start();
+
+		Timeout timeout = new Timeout(task, unit.toNanos(delay));
+		size.incrementAndGet();
+		pending.add(timeout);
+		return timeout;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	@Destroy
+	public void destroy() {
+		stopped = true;
+		if (worker != null) {
+			worker.interrupt();
+		}
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private void start() {
+		if (started.compareAndSet(false, true)) {
+			synchronized (this) {
+				executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+					AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "portal-timer-task-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			startTime = System.nanoTime();
+			worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "portal-timer");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void work() {
+		while (!stopped) {
+			long sleep = startTime + (tick + 1) * tickNanos - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+
+			Timeout timeout;
+			while ((timeout = pending.poll()) != null) {
+				place(timeout);
+			}
+			expire(System.nanoTime());
+			tick++;
+		}
+	}
+
+	private void place(Timeout timeout) {
+		long target = (timeout.deadline - startTime) / tickNanos;
+		wheel[(int) (Math.max(target, tick) & (wheel.length - 1))].add(timeout);
+	}
+
+	private void expire(long now) {
+		int index = (int) (tick & (wheel.length - 1));
+		List<Timeout> bucket = wheel[index];
+		wheel[index] = new ArrayList<Timeout>();
+
+		for (Timeout timeout : bucket) {
+			if (timeout.state.get() != Timeout.WAITING) {
+				size.decrementAndGet();
+			} else if (timeout.deadline - now > 0) {
+				long target = (timeout.deadline - startTime) / tickNanos;
+				wheel[(int) (Math.max(target, tick + 1) & (wheel.length - 1))].add(timeout);
+			} else if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+				size.decrementAndGet();
+				run(timeout);
+			} else {
+				size.decrementAndGet();
+			}
+		}
+	}
+
+	private void run(final Timeout timeout) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					timeout.task.run();
+				} catch (Throwable e) {
+					logger.error("Failed to run the task of " + timeout, e);
+				}
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			logger.warn("Running the task of {} in the timer thread", timeout);
+			task.run();
+		}
+	}
+
+	public static class Timeout {
+
+		static final int WAITING = 0;
+		static final int CANCELLED = 1;
+		static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long delay;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private volatile long deadline;
+
+		Timeout(Runnable task, long delay) {
+			this.task = task;
+			this.delay = delay;
+			this.deadline = System.nanoTime() + delay;
+		}
+
+		public boolean renew() {
+			deadline = System.nanoTime() + delay;
+			return state.get() == WAITING;
+		}
+
+		public boolean cancel() {
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+
+		public boolean cancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean expired() {
+			return state.get() == EXPIRED;
+		}
+
+		@Override
+		public String toString() {
+			return "Timeout{task=" + task + ", delay=" + TimeUnit.NANOSECONDS.toMillis(delay) + "ms}";
+		}
+
+	}
+
+}
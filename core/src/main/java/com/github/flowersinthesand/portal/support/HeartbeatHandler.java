@@ -15,66 +15,96 @@
  */
 package com.github.flowersinthesand.portal.support;
 
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.flowersinthesand.portal.Bean;
-import com.github.flowersinthesand.portal.Destroy;
 import com.github.flowersinthesand.portal.On;
 import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.Wire;
+import com.github.flowersinthesand.portal.support.AbstractSocketFactory.AbstractSocket;
+import com.github.flowersinthesand.portal.support.HashedWheelTimer.Timeout;
 
+/**
+ * Closes sockets whose heartbeat fails. Timeouts of sockets made by
+ * {@link AbstractSocketFactory} are kept by their handles and the ones of
+ * other sockets are kept in a map.
+ */
 @Bean
 public class HeartbeatHandler {
 
 	private final Logger logger = LoggerFactory.getLogger(HeartbeatHandler.class);
-	private ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
-	private Map<String, ScheduledFuture<?>> futures = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+	@Wire
+	private HashedWheelTimer timer;
+	private LongTable<Timeout> timeouts = new LongTable<Timeout>();
+	private ConcurrentMap<Socket, Timeout> others = new ConcurrentHashMap<Socket, Timeout>();
 
 	@On
 	public void open(final Socket socket) {
 		long delay = 0;
-		try {
-			delay = Long.valueOf(socket.param("heartbeat"));
-		} catch (NumberFormatException e) {
+		if (socket instanceof AbstractSocket) {
+			delay = ((AbstractSocket) socket).heartbeat();
+			if (((AbstractSocket) socket).handle() == 0) {
+				return;
+			}
+		} else {
+			try {
+				delay = Long.parseLong(socket.param("heartbeat"));
+			} catch (NumberFormatException e) {}
+		}
+		if (delay <= 0) {
 			return;
 		}
 
 		logger.debug("Setting heartbeat timer for socket#{}", socket.id());
-		futures.put(socket.id(), service.schedule(new Runnable() {
+		final int handle = handle(socket);
+		Timeout timeout = timer.schedule(new Runnable() {
 			@Override
 			public void run() {
 				logger.debug("Heartbeat of socket#{} fails", socket.id());
+				// The handle may have been passed to another socket in the meantime
+				Timeout timeout = handle != 0 ? timeouts.get(handle) : others.get(socket);
+				if (timeout != null && timeout.expired()) {
+					if (handle != 0) {
+						timeouts.remove(handle, timeout);
+					} else {
+						others.remove(socket, timeout);
+					}
+				}
 				socket.close();
 			}
-		}, delay, TimeUnit.MILLISECONDS));
+		}, delay, TimeUnit.MILLISECONDS);
+		if (handle != 0) {
+			timeouts.put(handle, timeout);
+		} else {
+			others.put(socket, timeout);
+		}
 	}
 
 	@On
 	public void close(Socket socket) {
-		if (futures.containsKey(socket.id())) {
-			futures.remove(socket.id()).cancel(true);
+		int handle = handle(socket);
+		Timeout timeout = handle != 0 ? timeouts.remove(handle) : others.remove(socket);
+		if (timeout != null) {
+			timeout.cancel();
 		}
 	}
 
 	@On
 	public void heartbeat(Socket socket) {
-		if (futures.containsKey(socket.id())) {
-			close(socket);
-			open(socket);
+		int handle = handle(socket);
+		Timeout timeout = handle != 0 ? timeouts.get(handle) : others.get(socket);
+		if (timeout != null && timeout.renew()) {
 			socket.send("heartbeat");
 		}
 	}
 
-	@Destroy
-	public void destroy() {
-		service.shutdown();
+	private int handle(Socket socket) {
+		return socket instanceof AbstractSocket ? ((AbstractSocket) socket).handle() : 0;
 	}
 
 }
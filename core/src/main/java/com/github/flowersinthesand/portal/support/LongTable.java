@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+/**
+ * A thread-safe open addressing table keyed by non-zero primitive longs.
+ * Each stripe is a pair of plain arrays guarded by its own lock, so neither
+ * lookups nor updates box the key or allocate an entry.
+ */
+class LongTable<V> {
+
+	private final Stripe[] stripes;
+
+	LongTable() {
+		this(16);
+	}
+
+	LongTable(int concurrency) {
+		stripes = new Stripe[Integer.highestOneBit(Math.max(1, concurrency * 2 - 1))];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		long hash = hash(key);
+		return (V) stripe(hash).get(key, hash);
+	}
+
+	@SuppressWarnings("unchecked")
+	V put(long key, V value) {
+		if (key == 0 || value == null) {
+			throw new IllegalArgumentException("Key must not be 0 and value must not be null");
+		}
+		long hash = hash(key);
+		return (V) stripe(hash).put(key, hash, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	V putIfAbsent(long key, V value) {
+		if (key == 0 || value == null) {
+			throw new IllegalArgumentException("Key must not be 0 and value must not be null");
+		}
+		long hash = hash(key);
+		return (V) stripe(hash).putIfAbsent(key, hash, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		if (key == 0) {
+			return null;
+		}
+		long hash = hash(key);
+		return (V) stripe(hash).remove(key, hash, null);
+	}
+
+	/**
+	 * Removes the entry only if the key is still mapped to the given value.
+	 *
+	 * @param key the key
+	 * @param value the value expected to be mapped
+	 * @return true if the entry has been removed
+	 */
+	boolean remove(long key, V value) {
+		if (key == 0 || value == null) {
+			return false;
+		}
+		long hash = hash(key);
+		return stripe(hash).remove(key, hash, value) != null;
+	}
+
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	private Stripe stripe(long hash) {
+		return stripes[(int) (hash >>> 32) & (stripes.length - 1)];
+	}
+
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private static class Stripe {
+
+		long[] keys = new long[16];
+		Object[] values = new Object[16];
+		int size;
+
+		synchronized Object get(long key, long hash) {
+			int mask = keys.length - 1;
+			for (int i = (int) hash & mask; keys[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+
+		synchronized Object put(long key, long hash, Object value) {
+			return put(key, hash, value, true);
+		}
+
+		synchronized Object putIfAbsent(long key, long hash, Object value) {
+			return put(key, hash, value, false);
+		}
+
+		private Object put(long key, long hash, Object value, boolean replace) {
+			int mask = keys.length - 1;
+			int i = (int) hash & mask;
+			for (; keys[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					Object old = values[i];
+					if (replace) {
+						values[i] = value;
+					}
+					return old;
+				}
+			}
+			keys[i] = key;
+			values[i] = value;
+			if (++size > keys.length >> 1) {
+				resize(keys.length << 1);
+			}
+			return null;
+		}
+
+		synchronized Object remove(long key, long hash, Object expected) {
+			int mask = keys.length - 1;
+			int i = (int) hash & mask;
+			for (; keys[i] != key; i = (i + 1) & mask) {
+				if (keys[i] == 0) {
+					return null;
+				}
+			}
+			Object old = values[i];
+			if (expected != null && old != expected) {
+				return null;
+			}
+			size--;
+
+			// Shifts the following entries of the cluster back so that no probe stops early
+			for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+				int home = (int) hash(keys[j]) & mask;
+				if (((j - home) & mask) >= ((j - i) & mask)) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			keys[i] = 0;
+			values[i] = null;
+			if (keys.length > 16 && size < keys.length >> 3) {
+				resize(keys.length >> 1);
+			}
+			return old;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		private void resize(int capacity) {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new long[capacity];
+			values = new Object[capacity];
+			int mask = capacity - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldKeys[j] != 0) {
+					int i = (int) hash(oldKeys[j]) & mask;
+					while (keys[i] != 0) {
+						i = (i + 1) & mask;
+					}
+					keys[i] = oldKeys[j];
+					values[i] = oldValues[j];
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * An outbound event whose type, data and reply flag are serialized only once.
+ * The event id is the only part that differs from socket to socket, so a
+ * message can be framed for any number of sockets by concatenating the
+ * prepared head and tail around each socket's event id.
+ */
+public class Message {
+
+	private static final String head = "{\"id\":";
+	private static final String quotedHead = "\"{\\\"id\\\":";
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final byte[] headBytes = head.getBytes(utf8);
+	private static final byte[] sseHeadBytes = ("data: " + head).getBytes(utf8);
+	private static final byte[] sseTailBytes = "\n\n".getBytes(utf8);
+	private static final int maxRetained = 64 * 1024;
+	private static final ThreadLocal<StringBuilderWriter> writers = new ThreadLocal<StringBuilderWriter>() {
+		@Override
+		protected StringBuilderWriter initialValue() {
+			return new StringBuilderWriter();
+		}
+	};
+
+	private final ObjectMapper mapper;
+	private final String type;
+	private final Object data;
+	private final boolean reply;
+	private final String tail;
+	private volatile String quotedTail;
+	private volatile byte[] tailBytes;
+
+	/**
+	 * Serializes the given event.
+	 *
+	 * @param mapper the mapper to write the data with
+	 * @param type the event type
+	 * @param data the data
+	 * @param reply whether the sender wants a reply
+	 */
+	public Message(ObjectMapper mapper, String type, Object data, boolean reply) {
+		this.mapper = mapper;
+		this.type = type;
+		this.data = data;
+		this.reply = reply;
+
+		StringBuilder builder = builder();
+		try {
+			JsonGenerator generator = mapper.getJsonFactory().createJsonGenerator(writers.get());
+			generator.writeStartObject();
+			generator.writeStringField("type", type);
+			generator.writeFieldName("data");
+			mapper.writeValue(generator, data);
+			generator.writeBooleanField("reply", reply);
+			generator.writeEndObject();
+			generator.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		builder.setCharAt(0, ',');
+		this.tail = release(builder);
+	}
+
+	public String type() {
+		return type;
+	}
+
+	public Object data() {
+		return data;
+	}
+
+	public boolean reply() {
+		return reply;
+	}
+
+	public String json(int id) {
+		return new StringBuilder(head.length() + tail.length() + 11).append(head).append(id).append(tail).toString();
+	}
+
+	public String sse(int id) {
+		return sse(id, null);
+	}
+
+	public String sse(int id, String padding) {
+		if (padding != null) {
+			return new StringBuilder(padding.length() + head.length() + tail.length() + 19)
+			.append(padding).append("data: ").append(head).append(id).append(tail).append("\n\n").toString();
+		}
+		return new StringBuilder(head.length() + tail.length() + 19)
+		.append("data: ").append(head).append(id).append(tail).append("\n\n").toString();
+	}
+
+	public String jsonp(String callback, int id) {
+		if (quotedTail == null) {
+			quotedTail = unquoteStart(quote(tail));
+		}
+
+		return new StringBuilder(callback.length() + quotedHead.length() + quotedTail.length() + 16)
+		.append(callback).append("(").append(quotedHead).append(id).append(quotedTail).append(");").toString();
+	}
+
+	public byte[] jsonBytes(int id) {
+		return bytes(null, headBytes, id, tailBytes(), null);
+	}
+
+	public byte[] sseBytes(int id, byte[] padding) {
+		return bytes(padding, sseHeadBytes, id, tailBytes(), sseTailBytes);
+	}
+
+	public Map<String, Object> toMap(int id) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("id", id);
+		map.put("type", type);
+		map.put("data", data);
+		map.put("reply", reply);
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return "{type=" + type + ", data=" + data + ", reply=" + reply + "}";
+	}
+
+	private byte[] tailBytes() {
+		if (tailBytes == null) {
+			tailBytes = tail.getBytes(utf8);
+		}
+		return tailBytes;
+	}
+
+	private static byte[] bytes(byte[] prefix, byte[] head, int id, byte[] tail, byte[] suffix) {
+		if (id < 0) {
+			byte[] digits = Integer.toString(id).getBytes(utf8);
+			return concat(prefix, head, digits, tail, suffix);
+		}
+
+		int digits = 1;
+		for (int n = id; n >= 10; n /= 10) {
+			digits++;
+		}
+		byte[] bytes = new byte[length(prefix) + head.length + digits + tail.length + length(suffix)];
+		int offset = copy(prefix, bytes, 0);
+		offset = copy(head, bytes, offset);
+		for (int i = offset + digits - 1, n = id; i >= offset; i--, n /= 10) {
+			bytes[i] = (byte) ('0' + n % 10);
+		}
+		offset = copy(tail, bytes, offset + digits);
+		copy(suffix, bytes, offset);
+		return bytes;
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		int length = 0;
+		for (byte[] array : arrays) {
+			length += length(array);
+		}
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		for (byte[] array : arrays) {
+			offset = copy(array, bytes, offset);
+		}
+		return bytes;
+	}
+
+	private static int length(byte[] array) {
+		return array == null ? 0 : array.length;
+	}
+
+	private static int copy(byte[] array, byte[] dest, int offset) {
+		if (array == null) {
+			return offset;
+		}
+		System.arraycopy(array, 0, dest, offset, array.length);
+		return offset + array.length;
+	}
+
+	private static StringBuilder builder() {
+		StringBuilder builder = writers.get().builder;
+		builder.setLength(0);
+		return builder;
+	}
+
+	private static String release(StringBuilder builder) {
+		String string = builder.toString();
+		if (builder.capacity() > maxRetained) {
+			writers.remove();
+		}
+		return string;
+	}
+
+	private String quote(String string) {
+		try {
+			return mapper.writeValueAsString(string);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String unquoteStart(String quoted) {
+		return quoted.substring(1);
+	}
+
+	private static class StringBuilderWriter extends Writer {
+
+		final StringBuilder builder = new StringBuilder(256);
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			builder.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(int c) {
+			builder.append((char) c);
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			builder.append(str, off, off + len);
+		}
+
+		@Override
+		public void flush() {}
+
+		@Override
+		public void close() {}
+
+	}
+
+}
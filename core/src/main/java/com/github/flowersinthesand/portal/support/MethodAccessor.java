@@ -0,0 +1,315 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls a method without the reflection. For a public method of a public
+ * class, a subclass which calls the method directly is generated with ASM.
+ * Otherwise, or if ASM is not available, the method is called through
+ * {@link Method#invoke(Object, Object...)}.
+ */
+public abstract class MethodAccessor {
+
+	private static final Logger logger = LoggerFactory.getLogger(MethodAccessor.class);
+	private static final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Returns an accessor of the given method.
+	 *
+	 * @param method the method to call
+	 * @return a generated accessor if possible, a reflective one otherwise
+	 */
+	public static MethodAccessor of(Method method) {
+		if (accessible(method)) {
+			try {
+				return new Generator(method).generate();
+			} catch (LinkageError e) {
+				logger.debug("Failed to generate the accessor of '" + method + "'", e);
+			} catch (Exception e) {
+				logger.debug("Failed to generate the accessor of '" + method + "'", e);
+			}
+		}
+
+		try {
+			method.setAccessible(true);
+		} catch (SecurityException e) {
+			logger.debug("Access checks of '{}' cannot be suppressed", method);
+		}
+		return new Reflective(method);
+	}
+
+	private static boolean accessible(Method method) {
+		if (!Modifier.isPublic(method.getModifiers()) || method.getDeclaringClass().getClassLoader() == null) {
+			return false;
+		}
+
+		Class<?>[] types = new Class<?>[method.getParameterTypes().length + 2];
+		System.arraycopy(method.getParameterTypes(), 0, types, 0, types.length - 2);
+		types[types.length - 2] = method.getReturnType();
+		types[types.length - 1] = method.getDeclaringClass();
+		for (Class<?> type : types) {
+			while (type.isArray()) {
+				type = type.getComponentType();
+			}
+			for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+				if (!c.isPrimitive() && !Modifier.isPublic(c.getModifiers())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calls the method which has no parameter.
+	 *
+	 * @param bean the object to call the method on, ignored if it is static
+	 * @return the return value or null if it is void
+	 * @throws InvocationTargetException if the method throws an exception
+	 */
+	public Object invoke(Object bean) throws InvocationTargetException {
+		return invoke(bean, new Object[0]);
+	}
+
+	/**
+	 * Calls the method which has one parameter.
+	 *
+	 * @param bean the object to call the method on, ignored if it is static
+	 * @param arg0 the first argument
+	 * @return the return value or null if it is void
+	 * @throws InvocationTargetException if the method throws an exception
+	 */
+	public Object invoke(Object bean, Object arg0) throws InvocationTargetException {
+		return invoke(bean, new Object[] { arg0 });
+	}
+
+	/**
+	 * Calls the method which has two parameters.
+	 *
+	 * @param bean the object to call the method on, ignored if it is static
+	 * @param arg0 the first argument
+	 * @param arg1 the second argument
+	 * @return the return value or null if it is void
+	 * @throws InvocationTargetException if the method throws an exception
+	 */
+	public Object invoke(Object bean, Object arg0, Object arg1) throws InvocationTargetException {
+		return invoke(bean, new Object[] { arg0, arg1 });
+	}
+
+	/**
+	 * Calls the method which has three parameters.
+	 *
+	 * @param bean the object to call the method on, ignored if it is static
+	 * @param arg0 the first argument
+	 * @param arg1 the second argument
+	 * @param arg2 the third argument
+	 * @return the return value or null if it is void
+	 * @throws InvocationTargetException if the method throws an exception
+	 */
+	public Object invoke(Object bean, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+		return invoke(bean, new Object[] { arg0, arg1, arg2 });
+	}
+
+	/**
+	 * Calls the method with any number of arguments.
+	 *
+	 * @param bean the object to call the method on, ignored if it is static
+	 * @param args the arguments
+	 * @return the return value or null if it is void
+	 * @throws InvocationTargetException if the method throws an exception
+	 */
+	public abstract Object invoke(Object bean, Object[] args) throws InvocationTargetException;
+
+	static class Reflective extends MethodAccessor {
+
+		final Method method;
+
+		Reflective(Method method) {
+			this.method = method;
+		}
+
+		@Override
+		public Object invoke(Object bean, Object[] args) throws InvocationTargetException {
+			try {
+				return method.invoke(bean, args);
+			} catch (IllegalArgumentException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+	}
+
+	static class Generator implements Opcodes {
+
+		static final String SUPER = Type.getInternalName(MethodAccessor.class);
+
+		final Method method;
+		final String name;
+
+		Generator(Method method) {
+			this.method = method;
+			this.name = MethodAccessor.class.getName() + "$Generated" + count.incrementAndGet();
+		}
+
+		MethodAccessor generate() throws Exception {
+			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SYNTHETIC, name.replace('.', '/'), null, SUPER, null);
+
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKESPECIAL, SUPER, "<init>", "()V", false);
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+
+			int arity = method.getParameterTypes().length;
+			if (arity <= 3) {
+				StringBuilder desc = new StringBuilder("(Ljava/lang/Object;");
+				for (int i = 0; i < arity; i++) {
+					desc.append("Ljava/lang/Object;");
+				}
+				invoke(cw, desc.append(")Ljava/lang/Object;").toString(), false);
+			}
+			invoke(cw, "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", true);
+			cw.visitEnd();
+
+			byte[] bytes = cw.toByteArray();
+			Class<?> clazz = new Loader(method.getDeclaringClass().getClassLoader()).define(name, bytes);
+			return (MethodAccessor) clazz.newInstance();
+		}
+
+		// Only the call is guarded so that a bad argument is not taken for an exception of the method
+		private void invoke(ClassWriter cw, String desc, boolean array) {
+			Class<?> owner = method.getDeclaringClass();
+			Class<?>[] paramTypes = method.getParameterTypes();
+			boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "invoke", desc, null, new String[] { "java/lang/reflect/InvocationTargetException" });
+			mv.visitCode();
+			if (!isStatic) {
+				mv.visitVarInsn(ALOAD, 1);
+				mv.visitTypeInsn(CHECKCAST, Type.getInternalName(owner));
+			}
+			for (int i = 0; i < paramTypes.length; i++) {
+				if (array) {
+					mv.visitVarInsn(ALOAD, 2);
+					mv.visitLdcInsn(i);
+					mv.visitInsn(AALOAD);
+				} else {
+					mv.visitVarInsn(ALOAD, 2 + i);
+				}
+				unbox(mv, paramTypes[i]);
+			}
+
+			Label start = new Label();
+			Label end = new Label();
+			Label handler = new Label();
+			mv.visitTryCatchBlock(start, end, handler, "java/lang/Throwable");
+			mv.visitLabel(start);
+			if (isStatic) {
+				mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(owner), method.getName(), Type.getMethodDescriptor(method), false);
+			} else if (owner.isInterface()) {
+				mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(owner), method.getName(), Type.getMethodDescriptor(method), true);
+			} else {
+				mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(owner), method.getName(), Type.getMethodDescriptor(method), false);
+			}
+			mv.visitLabel(end);
+			box(mv, method.getReturnType());
+			mv.visitInsn(ARETURN);
+
+			mv.visitLabel(handler);
+			mv.visitTypeInsn(NEW, "java/lang/reflect/InvocationTargetException");
+			mv.visitInsn(DUP_X1);
+			mv.visitInsn(SWAP);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/reflect/InvocationTargetException", "<init>", "(Ljava/lang/Throwable;)V", false);
+			mv.visitInsn(ATHROW);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		private static void unbox(MethodVisitor mv, Class<?> type) {
+			if (!type.isPrimitive()) {
+				if (type != Object.class) {
+					mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+				}
+				return;
+			}
+
+			Type primitive = Type.getType(type);
+			String wrapper = wrapper(type);
+			mv.visitTypeInsn(CHECKCAST, wrapper);
+			mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, type.getName() + "Value", "()" + primitive.getDescriptor(), false);
+		}
+
+		private static void box(MethodVisitor mv, Class<?> type) {
+			if (type == void.class) {
+				mv.visitInsn(ACONST_NULL);
+			} else if (type.isPrimitive()) {
+				String wrapper = wrapper(type);
+				mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + Type.getDescriptor(type) + ")L" + wrapper + ";", false);
+			}
+		}
+
+		private static String wrapper(Class<?> type) {
+			if (type == int.class) {
+				return "java/lang/Integer";
+			} else if (type == char.class) {
+				return "java/lang/Character";
+			}
+			String name = type.getName();
+			return "java/lang/" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		}
+
+	}
+
+	// Defines a generated class next to the class of the method so that its types are visible
+	static class Loader extends ClassLoader {
+
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (name.equals(MethodAccessor.class.getName())) {
+				return MethodAccessor.class;
+			}
+			return super.loadClass(name, resolve);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+	}
+
+}
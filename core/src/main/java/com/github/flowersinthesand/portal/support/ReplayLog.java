@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+/**
+ * A fixed-capacity ring of formatted events indexed by event id which a
+ * long polling socket keeps until the client acknowledges them. Once the ring
+ * is full, the oldest unacknowledged event is overwritten and counted as
+ * evicted.
+ */
+public class ReplayLog {
+
+	private final String[] frames;
+	private final int[] ids;
+	private final int mask;
+	private int first = 1;
+	private int last;
+	private long evicted;
+
+	public ReplayLog(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity * 2 - 1));
+		this.frames = new String[size];
+		this.ids = new int[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds the event and returns the number of unacknowledged events evicted
+	 * to make room for it.
+	 *
+	 * @param id the event id
+	 * @param json the event formatted as JSON
+	 * @return the number of evicted events
+	 */
+	public synchronized int add(int id, String json) {
+		if (id < first) {
+			return 0;
+		}
+		frames[id & mask] = json;
+		ids[id & mask] = id;
+		if (id > last) {
+			last = id;
+		}
+		int count = 0;
+		if (last - first >= frames.length) {
+			count = last - frames.length + 1 - first;
+			first += count;
+			evicted += count;
+		}
+		return count;
+	}
+
+	public synchronized long evicted() {
+		return evicted;
+	}
+
+	public synchronized void acknowledge(int id) {
+		if (id >= first) {
+			first = id + 1;
+		}
+	}
+
+	public synchronized int size() {
+		return Math.max(0, last - first + 1);
+	}
+
+	/**
+	 * Returns the unacknowledged events as a JSON array or null if there is
+	 * none.
+	 *
+	 * @return the JSON array or null
+	 */
+	public synchronized String tail() {
+		if (last < first) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder().append('[');
+		for (int id = first; id <= last; id++) {
+			int i = id & mask;
+			if (ids[i] == id) {
+				if (builder.length() > 1) {
+					builder.append(',');
+				}
+				builder.append(frames[i]);
+			}
+		}
+		return builder.append(']').toString();
+	}
+
+}
@@ -15,29 +15,42 @@
  */
 package com.github.flowersinthesand.portal.support;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.flowersinthesand.portal.App;
 import com.github.flowersinthesand.portal.Bean;
 import com.github.flowersinthesand.portal.Data;
 import com.github.flowersinthesand.portal.On;
+import com.github.flowersinthesand.portal.Options;
 import com.github.flowersinthesand.portal.Reply;
 import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.Wire;
+import com.github.flowersinthesand.portal.support.AbstractSocketFactory.AbstractSocket;
+import com.github.flowersinthesand.portal.support.HashedWheelTimer.Timeout;
 
 @Bean
 public class ReplyHandler {
 
 	private final Logger logger = LoggerFactory.getLogger(ReplyHandler.class);
-	private Map<String, Map<Integer, Reply.Fn>> replies = new ConcurrentHashMap<String, Map<Integer, Reply.Fn>>();
+	@Wire
+	private Options options;
+	@Wire
+	private HashedWheelTimer timer;
+	@Wire
+	private App app;
+	private LongTable<Pendings> sockets = new LongTable<Pendings>();
+	private LongTable<Pending> replies = new LongTable<Pending>();
 
 	@On
 	public void close(Socket socket) {
-		if (replies.containsKey(socket.id())) {
-			replies.remove(socket.id()).clear();
-		}
+		release(socket, handle(socket));
 	}
 
 	@On
@@ -45,22 +58,219 @@ public class ReplyHandler {
 		Integer eventId = (Integer) data.get("id");
 		Object response = data.get("data");
 
-		if (replies.containsKey(socket.id())) {
-			Map<Integer, Reply.Fn> fns = replies.get(socket.id());
-			if (fns.containsKey(eventId)) {
+		int handle = handle(socket);
+		Pendings pendings = handle != 0 ? sockets.get(handle) : null;
+		if (pendings != null && pendings.socket == socket) {
+			Pending pending = replies.get(key(handle, eventId));
+			if (pending != null && take(pending)) {
 				logger.debug("Executing the reply function corresponding to the event#{} with the data {}", eventId, response);
-				Reply.Fn reply = fns.remove(eventId);
-				reply.done();
-				reply.done(response);
+				pending.fn.done();
+				pending.fn.done(response);
+			}
+		}
+	}
+
+	/**
+	 * @deprecated Use {@link #set(Socket, int, Reply.Fn)} instead.
+	 *
+	 * @param id the socket id
+	 * @param eventId the id of the sent event
+	 * @param reply the function to be called with the reply
+	 */
+	@Deprecated
+	public void set(String id, int eventId, Reply.Fn reply) {
+		set(socket(id), eventId, reply);
+	}
+
+	public void set(Socket socket, int eventId, Reply.Fn reply) {
+		set(socket, eventId, reply, options != null ? options.replyTimeout() : 0);
+	}
+
+	public void set(Socket socket, final int eventId, final Reply.Fn reply, final long timeout) {
+		final String id = socket.id();
+		if (!socket.opened()) {
+			logger.debug("Socket#{} is closed so the reply for the event#{} won't come", id, eventId);
+			reply.fail(new IllegalStateException("Socket#" + id + " is closed"));
+			return;
+		}
+		int handle = handle(socket);
+		if (handle == 0) {
+			throw new IllegalArgumentException("Socket#" + id + " has no handle");
+		}
+
+		Pendings pendings;
+		Pendings stale = null;
+		synchronized (sockets) {
+			pendings = sockets.get(handle);
+			if (pendings == null || pendings.socket != socket) {
+				stale = pendings;
+				pendings = new Pendings(socket);
+				sockets.put(handle, pendings);
+			}
+		}
+		if (stale != null) {
+			for (Pending pending : stale.list()) {
+				take(pending);
+			}
+		}
+
+		final Pending pending = new Pending(key(handle, eventId), reply, pendings);
+		if (!pendings.add(pending, options != null ? options.replyCapacity() : Integer.MAX_VALUE)) {
+			logger.warn("Socket#{} has too many pending replies to wait for the event#{}", id, eventId);
+			reply.fail(new IllegalStateException("Too many pending replies"));
+			return;
+		}
+		if (replies.putIfAbsent(pending.key, pending) != null) {
+			pendings.remove(pending);
+			logger.warn("Socket#{} is already waiting for the reply of the event#{}", id, eventId);
+			reply.fail(new IllegalStateException("Reply for the event#" + eventId + " is already pending"));
+			return;
+		}
+		// The handle may have been released while the reply was being registered
+		if (handle(socket) != handle) {
+			release(socket, handle);
+			reply.fail(new IllegalStateException("Socket#" + id + " is closed"));
+			return;
+		}
+		if (timeout > 0) {
+			pending.timeout = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (take(pending)) {
+						logger.debug("Reply for the event#{} of socket#{} timed out", eventId, id);
+						reply.fail(new TimeoutException("No reply within " + timeout + "ms"));
+					}
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public int size() {
+		return replies.size();
+	}
+
+	/**
+	 * Drops the pending replies of the socket which has been holding the
+	 * handle.
+	 *
+	 * @param socket the socket
+	 * @param handle the handle which the socket has been holding
+	 */
+	void release(Socket socket, int handle) {
+		if (handle == 0) {
+			return;
+		}
+
+		Pendings pendings;
+		synchronized (sockets) {
+			pendings = sockets.get(handle);
+			if (pendings == null || pendings.socket != socket) {
+				return;
 			}
+			sockets.remove(handle);
+		}
+		for (Pending pending : pendings.list()) {
+			take(pending);
+		}
+	}
+
+	private Socket socket(String id) {
+		Object factory = null;
+		if (app != null) {
+			try {
+				factory = app.bean("socketFactory");
+			} catch (IllegalArgumentException e) {}
+		}
+		Socket socket = factory instanceof AbstractSocketFactory ? ((AbstractSocketFactory) factory).find(id) : null;
+		if (socket == null) {
+			throw new IllegalArgumentException("Socket#" + id + " not found");
+		}
+		return socket;
+	}
+
+	private boolean take(Pending pending) {
+		if (replies.remove(pending.key) != pending) {
+			return false;
+		}
+		pending.owner.remove(pending);
+		Timeout timeout = pending.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		return true;
+	}
+
+	private static int handle(Socket socket) {
+		return socket instanceof AbstractSocket ? ((AbstractSocket) socket).handle() : 0;
+	}
+
+	private static long key(int handle, int eventId) {
+		return ((long) handle << 32) | (eventId & 0xffffffffL);
+	}
+
+	private static class Pending {
+
+		final long key;
+		final Reply.Fn fn;
+		final Pendings owner;
+		volatile Timeout timeout;
+		Pending prev;
+		Pending next;
+
+		Pending(long key, Reply.Fn fn, Pendings owner) {
+			this.key = key;
+			this.fn = fn;
+			this.owner = owner;
 		}
+
 	}
 
-	public void set(String id, int eventId, final Reply.Fn reply) {
-		if (!replies.containsKey(id)) {
-			replies.put(id, new ConcurrentHashMap<Integer, Reply.Fn>());
+	private static class Pendings {
+
+		final Socket socket;
+		Pending head;
+		int size;
+
+		Pendings(Socket socket) {
+			this.socket = socket;
+		}
+
+		synchronized boolean add(Pending pending, int capacity) {
+			if (size >= capacity) {
+				return false;
+			}
+			pending.next = head;
+			if (head != null) {
+				head.prev = pending;
+			}
+			head = pending;
+			size++;
+			return true;
 		}
-		replies.get(id).put(eventId, reply);
+
+		synchronized void remove(Pending pending) {
+			if (pending.prev != null) {
+				pending.prev.next = pending.next;
+			} else if (head == pending) {
+				head = pending.next;
+			} else {
+				return;
+			}
+			if (pending.next != null) {
+				pending.next.prev = pending.prev;
+			}
+			pending.prev = pending.next = null;
+			size--;
+		}
+
+		synchronized List<Pending> list() {
+			List<Pending> list = new ArrayList<Pending>(size);
+			for (Pending pending = head; pending != null; pending = pending.next) {
+				list.add(pending);
+			}
+			return list;
+		}
+
 	}
 
 }
@@ -41,7 +41,10 @@ public class RoomSupportHandler {
 	@On
 	@Order(Integer.MIN_VALUE)
 	public void close(Socket socket) {
-		for (Room room : roomFactory.all()) {
+		Iterable<Room> rooms = roomFactory instanceof DefaultRoomFactory ?
+			((DefaultRoomFactory) roomFactory).rooms(socket) :
+			roomFactory.all();
+		for (Room room : rooms) {
 			room.remove(socket);
 		}
 	}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A static resource under META-INF/resources such as portal.js loaded once
+ * into memory along with its gzip-compressed form so that serving it costs
+ * neither classpath lookups nor copying nor compressing.
+ */
+public class StaticAsset {
+
+	/**
+	 * The path of an asset stays the same across versions so clients are told
+	 * to revalidate it, which costs a 304 response while it is unchanged.
+	 */
+	public static final String CACHE_CONTROL = "no-cache";
+
+	private static final Map<ClassLoader, ConcurrentMap<String, StaticAsset>> assetsByLoader =
+		Collections.synchronizedMap(new WeakHashMap<ClassLoader, ConcurrentMap<String, StaticAsset>>());
+
+	/**
+	 * Returns the asset of the given path like /portal/portal.js or null if
+	 * there is no such resource. Found assets are kept as long as the class
+	 * loader which they are loaded from.
+	 *
+	 * @param classLoader the class loader to find the resource with
+	 * @param path the path of the asset under META-INF/resources
+	 * @return the asset or null if there is no such resource
+	 */
+	public static StaticAsset get(ClassLoader classLoader, String path) {
+		ConcurrentMap<String, StaticAsset> assets;
+		synchronized (assetsByLoader) {
+			assets = assetsByLoader.get(classLoader);
+			if (assets == null) {
+				assets = new ConcurrentHashMap<String, StaticAsset>();
+				assetsByLoader.put(classLoader, assets);
+			}
+		}
+
+		StaticAsset asset = assets.get(path);
+		if (asset == null) {
+			URL url = classLoader.getResource("META-INF/resources" + path);
+			if (url == null) {
+				return null;
+			}
+			try {
+				asset = new StaticAsset(read(url.openStream()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			StaticAsset existing = assets.putIfAbsent(path, asset);
+			if (existing != null) {
+				asset = existing;
+			}
+		}
+		return asset;
+	}
+
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			if (parts[0].trim().equalsIgnoreCase("gzip")) {
+				return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int bytesRead = -1;
+			while ((bytesRead = in.read(buffer)) != -1) {
+				out.write(buffer, 0, bytesRead);
+			}
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ex) {}
+		}
+		return out.toByteArray();
+	}
+
+	private final byte[] bytes;
+	private final byte[] gzipped;
+	private final ByteBuffer buffer;
+	private final ByteBuffer gzippedBuffer;
+	private final String etag;
+	private final String gzippedEtag;
+
+	StaticAsset(byte[] bytes) throws IOException {
+		this.bytes = bytes;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3);
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(bytes);
+		gzip.close();
+		this.gzipped = out.toByteArray();
+		this.buffer = direct(bytes);
+		this.gzippedBuffer = direct(gzipped);
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(bytes.length);
+		this.etag = "\"" + tag + "\"";
+		this.gzippedEtag = "\"" + tag + "-gz\"";
+	}
+
+	private static ByteBuffer direct(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the entity tag of the plain or gzip-compressed content. They
+	 * differ as the two are different representations.
+	 *
+	 * @param gzip whether to return the tag of the gzip-compressed content
+	 * @return the quoted entity tag
+	 */
+	public String etag(boolean gzip) {
+		return gzip ? gzippedEtag : etag;
+	}
+
+	/**
+	 * Whether the client's If-None-Match header lists the current version of
+	 * the plain or gzip-compressed content.
+	 *
+	 * @param ifNoneMatch the value of the If-None-Match header, may be null
+	 * @param gzip whether the gzip-compressed content is to be sent
+	 * @return true if the client has the content already
+	 */
+	public boolean matches(String ifNoneMatch, boolean gzip) {
+		String etag = etag(gzip);
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int length(boolean gzip) {
+		return gzip ? gzipped.length : bytes.length;
+	}
+
+	public void write(OutputStream out, boolean gzip) throws IOException {
+		out.write(gzip ? gzipped : bytes);
+	}
+
+	/**
+	 * Returns a read-only view of the content held in direct memory which
+	 * can be written to a channel without copying.
+	 *
+	 * @param gzip whether to return the gzipped content
+	 * @return the content
+	 */
+	public ByteBuffer buffer(boolean gzip) {
+		return (gzip ? gzippedBuffer : buffer).duplicate();
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.support;
+
+public enum Transport {
+
+	WS, SSE, STREAM, LONGPOLL, LONGPOLLJSONP, UNKNOWN;
+
+	public static Transport of(String name) {
+		if (name == null) {
+			return UNKNOWN;
+		} else if (name.equals("ws")) {
+			return WS;
+		} else if (name.equals("sse")) {
+			return SSE;
+		} else if (name.startsWith("stream")) {
+			return STREAM;
+		} else if (name.equals("longpolljsonp")) {
+			return LONGPOLLJSONP;
+		} else if (name.startsWith("longpoll")) {
+			return LONGPOLL;
+		}
+
+		return UNKNOWN;
+	}
+
+	public boolean streaming() {
+		return this == SSE || this == STREAM;
+	}
+
+	public boolean longpolling() {
+		return this == LONGPOLL || this == LONGPOLLJSONP;
+	}
+
+}
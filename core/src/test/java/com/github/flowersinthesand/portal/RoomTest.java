@@ -16,7 +16,15 @@
 package com.github.flowersinthesand.portal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.mockito.Mockito;
@@ -41,21 +49,21 @@ public class RoomTest {
 		Socket socket1 = Mockito.mock(Socket.class);
 		Mockito.when(socket1.opened()).thenReturn(true);
 		chat.add(socket1);
-		Assert.assertArrayEquals(new Socket[] { socket1 }, chat.sockets().toArray(new Socket[] {}));
+		Assert.assertEquals(chat.sockets(), set(socket1));
 		Assert.assertEquals(chat.size(), 1);
 		
 		chat.add(socket1);
-		Assert.assertArrayEquals(new Socket[] { socket1 }, chat.sockets().toArray(new Socket[] {}));
+		Assert.assertEquals(chat.sockets(), set(socket1));
 		Assert.assertEquals(chat.size(), 1);
 
 		Socket socket2 = Mockito.mock(Socket.class);
 		Mockito.when(socket2.opened()).thenReturn(true);
 		chat.add(socket2);
-		Assert.assertArrayEquals(new Socket[] { socket1, socket2 }, chat.sockets().toArray(new Socket[] {}));
+		Assert.assertEquals(chat.sockets(), set(socket1, socket2));
 		Assert.assertEquals(chat.size(), 2);
 
 		chat.remove(socket1);
-		Assert.assertArrayEquals(new Socket[] { socket2 }, chat.sockets().toArray(new Socket[] {}));
+		Assert.assertEquals(chat.sockets(), set(socket2));
 		Assert.assertEquals(chat.size(), 1);
 	}
 	
@@ -168,11 +176,11 @@ public class RoomTest {
 
 		Room r1 = r.in(s3);
 		Assert.assertNotSame(r1, r);
-		Assert.assertArrayEquals(r1.sockets().toArray(), new Object[] { s1, s2, s3 });
+		Assert.assertEquals(r1.sockets(), set(s1, s2, s3));
 
 		Room r2 = r.out(s2);
 		Assert.assertNotSame(r2, r);
-		Assert.assertArrayEquals(r2.sockets().toArray(), new Object[] { s1 });
+		Assert.assertEquals(r2.sockets(), set(s1));
 		
 		r.close();
 		r1.close();
@@ -181,8 +189,90 @@ public class RoomTest {
 		r.add(s1, s2);
 		r1.add(s2, s3);
 		r2.add(s3, s1);		
-		Assert.assertArrayEquals(r.out(r1).sockets().toArray(), new Object[] { s1 });
-		Assert.assertArrayEquals(r.in(r2).sockets().toArray(), new Object[] { s1, s2, s3 });
+		Assert.assertEquals(r.out(r1).sockets(), set(s1));
+		Assert.assertEquals(r.in(r2).sockets(), set(s1, s2, s3));
+	}
+
+	@Test
+	public void views() {
+		Socket s1 = Mockito.mock(Socket.class);
+		Mockito.when(s1.opened()).thenReturn(true);
+		Socket s2 = Mockito.mock(Socket.class);
+		Mockito.when(s2.opened()).thenReturn(true);
+		Socket s3 = Mockito.mock(Socket.class);
+		Mockito.when(s3.opened()).thenReturn(true);
+		Room r = new DefaultRoomFactory().open("r").add(s1, s2);
+
+		Room out = r.out(s1);
+		Room in = r.in(s3);
+		Assert.assertEquals(out.size(), 1);
+		Assert.assertEquals(in.size(), 3);
+		r.add(s3);
+		Assert.assertEquals(out.sockets(), set(s2, s3));
+		Assert.assertEquals(out.size(), 2);
+		Assert.assertEquals(in.size(), 3);
+
+		out.send("event", "data");
+		Mockito.verify(s1, Mockito.never()).send("event", "data");
+		Mockito.verify(s2).send("event", "data");
+		Mockito.verify(s3).send("event", "data");
+
+		out.remove(s2);
+		r.remove(s3);
+		Assert.assertEquals(out.sockets(), set(s3));
+		Assert.assertEquals(in.out(s2).sockets(), set(s1, s3));
+	}
+
+	@Test
+	public void parallelSending() {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			App app = new App(new Options().url("/parallel").broadcastExecutor(executor).broadcastThreshold(10));
+			Room room = app.room("room");
+			final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+			final List<Object> executed = Collections.synchronizedList(new ArrayList<Object>());
+			final Thread caller = Thread.currentThread();
+			final CountDownLatch helped = new CountDownLatch(1);
+			Answer<Object> record = new Answer<Object>() {
+				@Override
+				public Object answer(InvocationOnMock invocation) throws Throwable {
+					// Holds the caller until a worker has taken a shard
+					if (Thread.currentThread() == caller) {
+						helped.await(1, TimeUnit.SECONDS);
+					} else {
+						helped.countDown();
+					}
+					threads.add(Thread.currentThread());
+					executed.add(invocation.getMock());
+					return null;
+				}
+			};
+
+			for (int i = 0; i < 100; i++) {
+				Socket socket = Mockito.mock(Socket.class);
+				Mockito.when(socket.opened()).thenReturn(true);
+				Mockito.when(socket.send("ed", "data")).then(record);
+				room.add(socket);
+			}
+
+			room.send("ed", "data");
+			Assert.assertEquals(executed.size(), 100);
+			Assert.assertEquals(new HashSet<Object>(executed), room.sockets());
+			threads.remove(caller);
+			Assert.assertFalse(threads.isEmpty());
+
+			executed.clear();
+			room.remove(room.sockets().toArray(new Socket[] {})[0]);
+			room.send("ed", "data");
+			Assert.assertEquals(executed.size(), 99);
+			app.close();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static Set<Socket> set(Socket... sockets) {
+		return new HashSet<Socket>(Arrays.asList(sockets));
 	}
 
 }
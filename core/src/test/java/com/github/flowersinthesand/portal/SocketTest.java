@@ -0,0 +1,495 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import com.github.flowersinthesand.portal.handler.DataBean;
+import com.github.flowersinthesand.portal.handler.EventsHandler;
+import com.github.flowersinthesand.portal.spi.Dispatcher;
+import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.DefaultDispatcher;
+import com.github.flowersinthesand.portal.support.DefaultRoomFactory;
+import com.github.flowersinthesand.portal.support.HashedWheelTimer;
+import com.github.flowersinthesand.portal.support.HeartbeatHandler;
+import com.github.flowersinthesand.portal.support.Message;
+import com.github.flowersinthesand.portal.support.ReplyHandler;
+import com.github.flowersinthesand.portal.support.Transport;
+
+public class SocketTest {
+
+	@Test
+	public void connecting() {
+		TestSocketFactory factory = new TestSocketFactory();
+		TestSocketFactory.TestSocket ws = factory.open("ws");
+		TestSocketFactory.TestSocket stream = factory.open("streamiframe");
+		Assert.assertEquals(ws.transport(), Transport.WS);
+		Assert.assertEquals(stream.transport(), Transport.STREAM);
+		Assert.assertEquals(ws.heartbeat(), 0);
+		Assert.assertEquals(ws.handle(), 1);
+		Assert.assertEquals(stream.handle(), 2);
+
+		ws.close();
+		Assert.assertEquals(ws.handle(), 0);
+		Assert.assertEquals(factory.open("longpolljsonp").handle(), 1);
+		Assert.assertEquals(factory.open("sse").handle(), 3);
+	}
+
+	@Test
+	public void formatting() {
+		TestSocketFactory factory = new TestSocketFactory();
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("text", "a \"quoted\"\nline");
+
+		String json = "{\"id\":1,\"type\":\"message\",\"data\":{\"text\":\"a \\\"quoted\\\"\\nline\"},\"reply\":false}";
+
+		Assert.assertEquals(factory.open("ws").send("message", data).frames.get(0), json);
+		Assert.assertEquals(factory.open("sse").send("message", data).frames.get(0), "data: " + json + "\n\n");
+		Assert.assertEquals(factory.open("streamxhr").send("message", data).frames.get(0), "data: " + json + "\n\n");
+		Assert.assertEquals(factory.open("longpollajax").send("message", data).frames.get(0), json);
+		Assert.assertEquals(factory.open("longpolljsonp").send("message", data).frames.get(0),
+			"callback(\"" + json.replace("\\", "\\\\").replace("\"", "\\\"") + "\");");
+	}
+
+	@Test
+	public void encoding() throws Exception {
+		TestSocketFactory factory = new TestSocketFactory();
+		Message message = new Message(new ObjectMapper(), "message", "\u00e9\u4e2d \"quoted\"", false);
+		for (String transport : new String[] { "ws", "sse", "streamxhr", "longpollajax", "longpolljsonp" }) {
+			TestSocketFactory.TestSocket socket = factory.open(transport);
+			for (int id : new int[] { 1, 9, 10, 12345 }) {
+				Assert.assertEquals(new String(socket.encode(message, id), "UTF-8"), socket.format(message, id));
+			}
+			socket.android();
+			Assert.assertEquals(new String(socket.encode(message, 7), "UTF-8"), socket.format(message, 7));
+
+			socket.bytes = true;
+			socket.send("message", "\u00e9");
+			Assert.assertEquals(socket.frames.get(0), socket.format(new Message(new ObjectMapper(), "message", "\u00e9", false), 1));
+		}
+	}
+
+	@Test
+	public void broadcasting() {
+		TestSocketFactory factory = new TestSocketFactory();
+		Room room = new DefaultRoomFactory().open("room");
+		List<TestSocketFactory.TestSocket> sockets = new ArrayList<TestSocketFactory.TestSocket>();
+		for (String transport : new String[] { "ws", "sse", "longpolljsonp", "ws" }) {
+			TestSocketFactory.TestSocket socket = factory.open(transport);
+			sockets.add(socket);
+			room.add(socket);
+		}
+		sockets.get(0).send("message", "first");
+
+		CountingBean data = new CountingBean();
+		room.send("message", data);
+
+		Assert.assertEquals(data.count, 1);
+		Assert.assertEquals(sockets.get(0).frames.get(1), "{\"id\":2,\"type\":\"message\",\"data\":{\"value\":\"v\"},\"reply\":false}");
+		Assert.assertEquals(sockets.get(1).frames.get(0), "data: {\"id\":1,\"type\":\"message\",\"data\":{\"value\":\"v\"},\"reply\":false}\n\n");
+		Assert.assertEquals(sockets.get(3).frames.get(0), "{\"id\":1,\"type\":\"message\",\"data\":{\"value\":\"v\"},\"reply\":false}");
+	}
+
+	@Test
+	public void firing() throws Exception {
+		TestSocketFactory factory = new TestSocketFactory();
+		Field field = DefaultDispatcher.class.getDeclaredField("evaluator");
+		field.setAccessible(true);
+		field.set(factory.dispatcher(), new DefaultDispatcher.DefaultEvaluator());
+
+		EventsHandler h = new EventsHandler();
+		factory.dispatcher().on("data", h, h.getClass().getMethod("data", DataBean.class));
+		factory.dispatcher().on("nestedData", h, h.getClass().getMethod("nestedData", Map.class, DataBean.class, DataBean.class));
+		factory.dispatcher().on("repli-data2", h, h.getClass().getMethod("repliData2", DataBean.class));
+		TestSocketFactory.TestSocket socket = factory.open("ws");
+
+		factory.fire("{\"id\":1,\"socket\":\"" + socket.id() + "\",\"type\":\"data\",\"data\":{\"number\":100,\"string\":\"String\"},\"reply\":false}");
+		Assert.assertArrayEquals(new Object[] { new DataBean(100, "String") }, h.args);
+
+		factory.fire("{\"type\":\"nestedData\",\"socket\":\"" + socket.id() + "\",\"unknown\":[{}],"
+			+ "\"data\":{\"data1\":{\"number\":1,\"string\":\"a\"},\"data2\":{\"number\":2,\"string\":\"b\"}},\"id\":2,\"reply\":false}");
+		Assert.assertEquals(((Map<?, ?>) h.args[0]).size(), 2);
+		Assert.assertEquals(h.args[1], new DataBean(1, "a"));
+		Assert.assertEquals(h.args[2], new DataBean(2, "b"));
+
+		factory.fire("{\"id\":3,\"socket\":\"" + socket.id() + "\",\"type\":\"repli-data2\",\"data\":{\"number\":3,\"string\":\"c\"},\"reply\":true}");
+		Assert.assertEquals(socket.frames.get(0),
+			"{\"id\":1,\"type\":\"reply\",\"data\":{\"id\":3,\"data\":{\"number\":3,\"string\":\"c\"},\"exception\":false},\"reply\":false}");
+	}
+
+	@Test
+	public void firingToOtherDispatchers() {
+		TestSocketFactory factory = new TestSocketFactory();
+		Dispatcher dispatcher = Mockito.mock(Dispatcher.class);
+		factory.dispatcher(dispatcher);
+		TestSocketFactory.TestSocket socket = factory.open("ws");
+
+		factory.fire("{\"id\":1,\"socket\":\"" + socket.id() + "\",\"type\":\"data\",\"data\":{\"number\":100,\"list\":[true]},\"reply\":true}");
+		ArgumentCaptor<Object> data = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(dispatcher).fire(Mockito.eq("data"), Mockito.same(socket), data.capture(), Mockito.eq(1));
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("number", 100);
+		map.put("list", Arrays.asList(true));
+		Assert.assertEquals(map, data.getValue());
+	}
+
+	@Test
+	public void queueing() {
+		TestSocketFactory factory = new TestSocketFactory();
+		factory.options(new Options().url("/queue").outboundCapacity(2).outboundOverflow(Options.Overflow.DROP_OLDEST));
+		TestSocketFactory.TestSocket socket = factory.open("ws");
+		socket.writable = false;
+		socket.send("a").send("b").send("c");
+		Assert.assertEquals(socket.queued(), 2);
+		Assert.assertEquals(socket.dropped(), 1);
+		socket.writable = true;
+		socket.drain();
+		Assert.assertEquals(socket.frames.size(), 2);
+		Assert.assertTrue(socket.frames.get(0).contains("\"b\""));
+		Assert.assertEquals(socket.queued(), 0);
+
+		factory.options(new Options().url("/queue").outboundCapacity(2).outboundOverflow(Options.Overflow.DROP_NEWEST));
+		socket = factory.open("ws");
+		socket.writable = false;
+		socket.send("a").send("b").send("c");
+		socket.writable = true;
+		socket.drain();
+		Assert.assertEquals(socket.dropped(), 1);
+		Assert.assertTrue(socket.frames.get(1).contains("\"b\""));
+
+		factory.options(new Options().url("/queue").outboundCapacity(2).outboundOverflow(Options.Overflow.COALESCE));
+		socket = factory.open("ws");
+		socket.writable = false;
+		socket.send("a", 1).send("b", 1).send("a", 2);
+		socket.writable = true;
+		socket.drain();
+		Assert.assertEquals(socket.dropped(), 1);
+		Assert.assertEquals(socket.frames.get(0), "{\"id\":3,\"type\":\"a\",\"data\":2,\"reply\":false}");
+
+		factory.options(new Options().url("/queue").outboundCapacity(2).outboundOverflow(Options.Overflow.DISCONNECT));
+		socket = factory.open("ws");
+		socket.writable = false;
+		socket.send("a").send("b").send("c");
+		Assert.assertFalse(socket.opened());
+	}
+
+	@Test
+	public void replying() throws Exception {
+		TestSocketFactory factory = new TestSocketFactory();
+		HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+		Field field = ReplyHandler.class.getDeclaredField("timer");
+		field.setAccessible(true);
+		field.set(factory.replyHandler(), timer);
+		field = ReplyHandler.class.getDeclaredField("options");
+		field.setAccessible(true);
+		field.set(factory.replyHandler(), new Options().url("/reply").replyCapacity(2));
+		factory.dispatcher().on("reply", factory.replyHandler(), ReplyHandler.class.getMethod("reply", Socket.class, Map.class));
+		factory.dispatcher().on("close", factory.replyHandler(), ReplyHandler.class.getMethod("close", Socket.class));
+		TestSocketFactory.TestSocket socket = factory.open("ws");
+
+		final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+		final CountDownLatch latch = new CountDownLatch(1);
+		Reply.Fn fn = new Reply.Fn() {
+			@Override
+			public void done() {}
+
+			@Override
+			public void done(Object data) {
+				results.add(data);
+			}
+
+			@Override
+			public void fail(Throwable error) {
+				results.add(error);
+				latch.countDown();
+			}
+		};
+
+		socket.send("a", null, fn, 50);
+		Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		Assert.assertTrue(results.get(0) instanceof TimeoutException);
+		Assert.assertEquals(factory.replyHandler().size(), 0);
+
+		results.clear();
+		socket.send("b", null, fn, 10000);
+		socket.send("c", null, fn);
+		socket.send("d", null, fn);
+		Assert.assertTrue(results.get(0) instanceof IllegalStateException);
+		Assert.assertEquals(factory.replyHandler().size(), 2);
+
+		results.clear();
+		factory.fire("{\"id\":1,\"socket\":\"" + socket.id() + "\",\"type\":\"reply\",\"data\":{\"id\":2,\"data\":\"done\"},\"reply\":false}");
+		Assert.assertEquals(results, Arrays.<Object> asList("done"));
+		Assert.assertEquals(factory.replyHandler().size(), 1);
+
+		socket.close();
+		Assert.assertEquals(factory.replyHandler().size(), 0);
+
+		results.clear();
+		TestSocketFactory.TestSocket reusing = factory.open("ws");
+		Assert.assertEquals(reusing.handle(), 1);
+		socket.send("e", null, fn);
+		Assert.assertTrue(results.get(0) instanceof IllegalStateException);
+		Assert.assertEquals(factory.replyHandler().size(), 0);
+
+		results.clear();
+		factory.replyHandler().set(reusing, 1, fn, 0);
+		factory.replyHandler().set(reusing, 1, fn, 0);
+		Assert.assertTrue(results.get(0) instanceof IllegalStateException);
+		Assert.assertEquals(factory.replyHandler().size(), 1);
+
+		reusing.close();
+		Assert.assertEquals(factory.replyHandler().size(), 0);
+		timer.destroy();
+	}
+
+	@Test
+	public void heartbeating() throws Exception {
+		HeartbeatHandler handler = new HeartbeatHandler();
+		Field field = HeartbeatHandler.class.getDeclaredField("timer");
+		field.setAccessible(true);
+		field.set(handler, new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8));
+
+		// Sockets made by other factories don't have a handle
+		Socket socket = Mockito.mock(Socket.class);
+		Mockito.when(socket.param("heartbeat")).thenReturn("50");
+		handler.open(socket);
+		handler.heartbeat(socket);
+		Mockito.verify(socket).send("heartbeat");
+		Mockito.verify(socket, Mockito.timeout(2000)).close();
+	}
+
+	@Test
+	public void replaying() {
+		TestSocketFactory factory = new TestSocketFactory();
+		factory.options(new Options().url("/replay").replayCapacity(4));
+		TestSocketFactory.TestSocket socket = factory.open("longpollajax");
+		socket.send("a", 1).send("b", 2).send("c", 3);
+		socket.frames.clear();
+
+		socket.poll("1");
+		Assert.assertEquals(socket.frames.get(0),
+			"[{\"id\":2,\"type\":\"b\",\"data\":2,\"reply\":false},{\"id\":3,\"type\":\"c\",\"data\":3,\"reply\":false}]");
+		socket.poll("2,3");
+		Assert.assertEquals(socket.frames.size(), 1);
+
+		for (int i = 4; i <= 9; i++) {
+			socket.send("d", i);
+		}
+		Assert.assertEquals(socket.dropped(), 2);
+		socket.frames.clear();
+		socket.poll("3");
+		Assert.assertTrue(socket.frames.get(0).startsWith("[{\"id\":6,"));
+
+		socket = factory.open("longpolljsonp");
+		socket.send("a", 1).send("b", 2);
+		socket.frames.clear();
+		socket.poll("1");
+		Assert.assertEquals(socket.frames.get(0), "callback(\"[{\\\"id\\\":2,\\\"type\\\":\\\"b\\\",\\\"data\\\":2,\\\"reply\\\":false}]\");");
+	}
+
+	public static class CountingBean {
+
+		int count;
+
+		public String getValue() {
+			count++;
+			return "v";
+		}
+
+	}
+
+	@Test
+	public void batching() throws InterruptedException {
+		TestSocketFactory factory = new TestSocketFactory();
+		factory.options(new Options().batchSize(3));
+		TestSocketFactory.TestSocket ws = factory.open("ws");
+		ws.writable = false;
+		for (int i = 0; i < 5; i++) {
+			ws.send("message", i);
+		}
+		ws.writable = true;
+		ws.drain();
+		Assert.assertEquals(ws.frames, Arrays.asList(
+			"[{\"id\":1,\"type\":\"message\",\"data\":0,\"reply\":false},{\"id\":2,\"type\":\"message\",\"data\":1,\"reply\":false},"
+				+ "{\"id\":3,\"type\":\"message\",\"data\":2,\"reply\":false}]",
+			"[{\"id\":4,\"type\":\"message\",\"data\":3,\"reply\":false},{\"id\":5,\"type\":\"message\",\"data\":4,\"reply\":false}]"));
+
+		factory.options(new Options().batchSize(10).batchDelay(20));
+		TestSocketFactory.TestSocket sse = factory.open("sse");
+		sse.send("a").send("b");
+		Assert.assertTrue(sse.frames.isEmpty());
+		for (int i = 0; i < 100 && sse.frames.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(sse.frames, Arrays.asList(
+			"data: {\"id\":1,\"type\":\"a\",\"data\":null,\"reply\":false}\n\ndata: {\"id\":2,\"type\":\"b\",\"data\":null,\"reply\":false}\n\n"));
+
+		TestSocketFactory.TestSocket longpoll = factory.open("longpoll");
+		longpoll.send("a");
+		Assert.assertEquals(longpoll.frames.size(), 1);
+	}
+
+	@Test
+	public void gathering() throws InterruptedException {
+		TestSocketFactory factory = new TestSocketFactory();
+		factory.options(new Options().longpollWindow(20));
+		TestSocketFactory.TestSocket socket = factory.open("longpoll");
+		socket.send("a").send("b").send("c");
+		Assert.assertTrue(socket.frames.isEmpty());
+		for (int i = 0; i < 100 && socket.frames.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(socket.frames, Arrays.asList("[{\"id\":1,\"type\":\"a\",\"data\":null,\"reply\":false},"
+			+ "{\"id\":2,\"type\":\"b\",\"data\":null,\"reply\":false},{\"id\":3,\"type\":\"c\",\"data\":null,\"reply\":false}]"));
+
+		socket.poll("1,2,3");
+		Assert.assertEquals(socket.frames.size(), 1);
+	}
+
+	static class TestSocketFactory extends AbstractSocketFactory {
+
+		static final HashedWheelTimer TIMER = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 64);
+
+		TestSocketFactory() {
+			dispatcher = new DefaultDispatcher();
+			replyHandler = new ReplyHandler();
+			timer = TIMER;
+		}
+
+		Dispatcher dispatcher() {
+			return dispatcher;
+		}
+
+		void dispatcher(Dispatcher dispatcher) {
+			this.dispatcher = dispatcher;
+		}
+
+		ReplyHandler replyHandler() {
+			return replyHandler;
+		}
+
+		void options(Options options) {
+			this.options = options;
+		}
+
+		TestSocket open(String transport) {
+			Map<String, String> params = new LinkedHashMap<String, String>();
+			params.put("id", "socket" + sockets.size());
+			params.put("transport", transport);
+			params.put("callback", "callback");
+
+			TestSocket socket = new TestSocket(params);
+			sockets.put(socket.id(), socket);
+			socket.onOpen();
+			return socket;
+		}
+
+		class TestSocket extends AbstractSocket {
+
+			List<String> frames = new ArrayList<String>();
+			boolean writable = true;
+			boolean bytes;
+
+			TestSocket(Map<String, String> params) {
+				this.params = params;
+			}
+
+			@Override
+			public TestSocket send(String event) {
+				super.send(event);
+				return this;
+			}
+
+			@Override
+			public TestSocket send(String event, Object data) {
+				super.send(event, data);
+				return this;
+			}
+
+			void android() {
+				isAndroid = true;
+			}
+
+			void poll(String lastEventIds) {
+				retrieveCache(lastEventIds);
+			}
+
+			@Override
+			protected boolean writable() {
+				return writable;
+			}
+
+			@Override
+			protected void drain() {
+				super.drain();
+			}
+
+			@Override
+			protected String format(Message message, int id) {
+				return super.format(message, id);
+			}
+
+			@Override
+			protected byte[] encode(Message message, int id) {
+				return super.encode(message, id);
+			}
+
+			@Override
+			protected boolean transmitsBytes() {
+				return bytes;
+			}
+
+			@Override
+			protected void transmit(byte[] it) {
+				try {
+					frames.add(new String(it, "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			protected void transmit(String it) {
+				frames.add(it);
+			}
+
+			@Override
+			protected void disconnect() {
+				onClose();
+			}
+
+		}
+
+	}
+
+}
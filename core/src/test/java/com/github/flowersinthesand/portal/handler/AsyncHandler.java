@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.handler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.github.flowersinthesand.portal.Async;
+import com.github.flowersinthesand.portal.Bean;
+import com.github.flowersinthesand.portal.On;
+import com.github.flowersinthesand.portal.Reply;
+
+@Bean
+public class AsyncHandler {
+
+	public List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+	@On
+	@Async
+	@Reply
+	public String block() throws InterruptedException {
+		Thread.sleep(100);
+		threads.add(Thread.currentThread());
+		return "done";
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.handler;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.github.flowersinthesand.portal.Bean;
+import com.github.flowersinthesand.portal.On;
+import com.github.flowersinthesand.portal.Reply;
+
+@Bean
+public class FutureHandler {
+
+	public FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+		@Override
+		public String call() throws Exception {
+			return "done";
+		}
+	});
+
+	@On
+	@Reply
+	public Future<String> future() {
+		return future;
+	}
+
+}
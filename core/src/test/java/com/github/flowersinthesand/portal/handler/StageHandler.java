@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.github.flowersinthesand.portal.Bean;
+import com.github.flowersinthesand.portal.On;
+import com.github.flowersinthesand.portal.Reply;
+import com.github.flowersinthesand.portal.handler.ThrowingHandler.TestException;
+
+@Bean
+public class StageHandler {
+
+	public CompletableFuture<String> stage = new CompletableFuture<String>();
+	public CompletableFuture<String> failingStage = new CompletableFuture<String>();
+	public CompletableFuture<String> unmappedStage = new CompletableFuture<String>();
+
+	@On
+	@Reply
+	public CompletionStage<String> stage() {
+		return stage;
+	}
+
+	@On
+	@Reply(failFor = TestException.class)
+	public CompletionStage<String> failingStage() {
+		return failingStage;
+	}
+
+	@On
+	@Reply(failFor = TestException.class)
+	public CompletionStage<String> unmappedStage() {
+		return unmappedStage;
+	}
+
+}
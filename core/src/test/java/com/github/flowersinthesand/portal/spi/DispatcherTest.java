@@ -15,20 +15,37 @@
  */
 package com.github.flowersinthesand.portal.spi;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Assert;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
 
+import com.github.flowersinthesand.portal.Options;
 import com.github.flowersinthesand.portal.Reply;
 import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.handler.AsyncHandler;
 import com.github.flowersinthesand.portal.handler.DataBean;
 import com.github.flowersinthesand.portal.handler.EventsHandler;
+import com.github.flowersinthesand.portal.handler.FutureHandler;
 import com.github.flowersinthesand.portal.handler.OrderHandler;
 import com.github.flowersinthesand.portal.handler.ThrowingHandler;
 import com.github.flowersinthesand.portal.handler.ThrowingHandler.TestException;
@@ -46,6 +63,28 @@ public class DispatcherTest {
 		Assert.assertNotNull(dispatcher.handlers("load"));
 	}
 
+	@Test
+	public void unbinding() throws SecurityException, NoSuchMethodException {
+		OrderHandler h = new OrderHandler();
+
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		Socket socket = Mockito.mock(Socket.class);
+
+		for (String methodName : new String[] { "x1", "x2", "x3" }) {
+			dispatcher.on("x", h, h.getClass().getMethod(methodName));
+		}
+		dispatcher.off("x", h, h.getClass().getMethod("x2"));
+		Assert.assertEquals(dispatcher.handlers("x").size(), 2);
+
+		dispatcher.fire("x", socket);
+		Assert.assertEquals(h.args.size(), 2);
+		Assert.assertFalse(h.args.contains(0));
+
+		dispatcher.off("x", h, h.getClass().getMethod("x1"));
+		dispatcher.off("x", h, h.getClass().getMethod("x3"));
+		Assert.assertNull(dispatcher.handlers("x"));
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void firing() throws SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, NoSuchMethodException {
@@ -141,6 +180,158 @@ public class DispatcherTest {
 		Assert.assertArrayEquals(h.args.toArray(), new Object[] { -1, 0, 1 });
 	}
 	
+	@Test
+	public void executing() throws Exception {
+		OrderHandler h = new OrderHandler();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		Field field = DefaultDispatcher.class.getDeclaredField("options");
+		field.setAccessible(true);
+		field.set(dispatcher, new Options().dispatchExecutor(executor).metrics(true));
+		Socket socket = Mockito.mock(Socket.class);
+		Mockito.when(socket.opened()).thenReturn(true);
+
+		for (String methodName : new String[] { "x1", "x2", "x3" }) {
+			dispatcher.on("x", h, h.getClass().getMethod(methodName));
+		}
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 100; i++) {
+			dispatcher.fire("x", socket);
+			expected.addAll(Arrays.asList(-1, 0, 1));
+		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		dispatcher.execute(socket, new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(h.args, expected);
+		Assert.assertEquals(dispatcher.pending(), 0);
+		Assert.assertEquals(dispatcher.queueing().count(), 101);
+		Assert.assertEquals(dispatcher.handling().count(), 100);
+		executor.shutdown();
+	}
+
+	@Test
+	public void async() throws Exception {
+		final AsyncHandler h = new AsyncHandler();
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		Socket socket = Mockito.mock(Socket.class);
+		Mockito.when(socket.opened()).thenReturn(true);
+		dispatcher.on("block", h, h.getClass().getMethod("block"));
+
+		long start = System.nanoTime();
+		dispatcher.fire("block", socket, null, 1);
+		dispatcher.fire("block", socket, null, 2);
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+		final List<Integer> handled = new ArrayList<Integer>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		dispatcher.execute(socket, new Runnable() {
+			@Override
+			public void run() {
+				handled.add(h.threads.size());
+				latch.countDown();
+			}
+		});
+
+		Mockito.verify(socket, Mockito.timeout(1000).times(2)).send(Mockito.eq("reply"), Mockito.anyMap());
+		Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+		Assert.assertEquals(handled, Arrays.asList(2));
+		Assert.assertEquals(h.threads.size(), 2);
+		Assert.assertFalse(h.threads.contains(Thread.currentThread()));
+		dispatcher.destroy();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void future() throws SecurityException, NoSuchMethodException {
+		FutureHandler h = new FutureHandler();
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		Socket socket = Mockito.mock(Socket.class);
+
+		dispatcher.on("future", h, h.getClass().getMethod("future"));
+		dispatcher.fire("future", socket, null, 3);
+		h.future.run();
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		Mockito.verify(socket, Mockito.timeout(1000)).send(Mockito.eq("reply"), captor.capture());
+		Assert.assertEquals(captor.getValue().get("id"), 3);
+		Assert.assertEquals(captor.getValue().get("data"), "done");
+		dispatcher.destroy();
+	}
+
+	@Test
+	public void metrics() throws Exception {
+		OrderHandler h = new OrderHandler();
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		Field field = DefaultDispatcher.class.getDeclaredField("options");
+		field.setAccessible(true);
+		field.set(dispatcher, new Options().url("/metrics").metrics(true));
+		Socket socket = Mockito.mock(Socket.class);
+
+		for (String methodName : new String[] { "x1", "x2", "y1" }) {
+			dispatcher.on(methodName.substring(0, 1), h, h.getClass().getMethod(methodName));
+		}
+		dispatcher.on("y", h, h.getClass().getMethod("x1"));
+		for (int i = 0; i < 10; i++) {
+			dispatcher.fire("x", socket);
+		}
+		dispatcher.fire("y", socket);
+
+		Assert.assertEquals(dispatcher.byEvent().keySet(), new HashSet<String>(Arrays.asList("x", "y")));
+		Assert.assertEquals(dispatcher.byEvent().get("x").count(), 10);
+		Assert.assertEquals(dispatcher.byHandler().get("x:" + OrderHandler.class.getName() + "#x1()").count(), 10);
+		Assert.assertEquals(dispatcher.byHandler().get("y:" + OrderHandler.class.getName() + "#x1()").count(), 1);
+		Assert.assertEquals(dispatcher.byHandler().get("y:" + OrderHandler.class.getName() + "#y1()").count(), 1);
+		DefaultDispatcher.Stats stats = dispatcher.byEvent().get("x");
+		Assert.assertTrue(stats.percentile(50, TimeUnit.NANOSECONDS) <= stats.percentile(99, TimeUnit.NANOSECONDS));
+		Assert.assertTrue(stats.percentile(100, TimeUnit.NANOSECONDS) <= stats.max(TimeUnit.NANOSECONDS));
+
+		dispatcher.init();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.github.flowersinthesand.portal:type=Dispatcher,name=\"/metrics\"");
+		CompositeData[] events = (CompositeData[]) server.getAttribute(name, "Events");
+		Assert.assertEquals(events.length, 2);
+		Assert.assertEquals(events[0].get("name"), "x");
+		Assert.assertEquals(events[0].get("count"), 10L);
+		dispatcher.destroy();
+		Assert.assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void withoutMetrics() throws Exception {
+		OrderHandler h = new OrderHandler();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		Field field = DefaultDispatcher.class.getDeclaredField("options");
+		field.setAccessible(true);
+		Socket socket = Mockito.mock(Socket.class);
+		Mockito.when(socket.opened()).thenReturn(true);
+		dispatcher.on("x", h, h.getClass().getMethod("x1"));
+
+		dispatcher.fire("x", socket);
+		field.set(dispatcher, new Options().dispatchExecutor(executor));
+		dispatcher.fire("x", socket);
+		final CountDownLatch latch = new CountDownLatch(1);
+		dispatcher.execute(socket, new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(h.args.size(), 2);
+		Assert.assertEquals(dispatcher.handling().count(), 0);
+		Assert.assertEquals(dispatcher.queueing().count(), 0);
+		Assert.assertTrue(dispatcher.byEvent().isEmpty());
+		Assert.assertEquals(dispatcher.byHandler().get("x:" + OrderHandler.class.getName() + "#x1()").count(), 0);
+		executor.shutdown();
+	}
+
 	@Test
 	public void throwing() throws SecurityException, NoSuchMethodException {
 		ThrowingHandler h = new ThrowingHandler();
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.spi;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import com.github.flowersinthesand.portal.support.MethodAccessor;
+
+public class MethodAccessorTest {
+
+	@Test
+	public void generating() throws Exception {
+		MethodAccessor accessor = MethodAccessor.of(Target.class.getMethod("add", int.class, long.class));
+		Assert.assertFalse(accessor.getClass().getName().endsWith("$Reflective"));
+		Assert.assertEquals(accessor.invoke(new Target(), 1, 2L), 3L);
+		Assert.assertEquals(accessor.invoke(new Target(), new Object[] { 1, 2L }), 3L);
+
+		accessor = MethodAccessor.of(Target.class.getMethod("none"));
+		Assert.assertNull(accessor.invoke(new Target()));
+		accessor = MethodAccessor.of(Target.class.getMethod("join", String.class, String.class, String.class, String.class));
+		Assert.assertEquals(accessor.invoke(new Target(), new Object[] { "a", "b", "c", "d" }), "abcd");
+		accessor = MethodAccessor.of(Target.class.getMethod("of", String.class));
+		Assert.assertEquals(accessor.invoke(null, "x"), "x");
+	}
+
+	@Test
+	public void fallingBack() throws Exception {
+		MethodAccessor accessor = MethodAccessor.of(Hidden.class.getDeclaredMethod("hidden"));
+		Assert.assertEquals(accessor.getClass().getName(), MethodAccessor.class.getName() + "$Reflective");
+		Assert.assertEquals(accessor.invoke(new Hidden()), "hidden");
+	}
+
+	@Test
+	public void throwing() throws Exception {
+		MethodAccessor accessor = MethodAccessor.of(Target.class.getMethod("fail"));
+		try {
+			accessor.invoke(new Target());
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertEquals(e.getCause().getClass(), IllegalStateException.class);
+		}
+
+		accessor = MethodAccessor.of(Target.class.getMethod("add", int.class, long.class));
+		try {
+			accessor.invoke(new Target(), "1", 2L);
+			Assert.fail();
+		} catch (ClassCastException e) {
+			// A bad argument is not an exception of the method
+		}
+	}
+
+	public static class Target {
+
+		public long add(int a, long b) {
+			return a + b;
+		}
+
+		public void none() {}
+
+		public String join(String a, String b, String c, String d) {
+			return a + b + c + d;
+		}
+
+		public static String of(String value) {
+			return value;
+		}
+
+		public void fail() {
+			throw new IllegalStateException();
+		}
+
+	}
+
+	static class Hidden {
+
+		@SuppressWarnings("unused")
+		private String hidden() {
+			return "hidden";
+		}
+
+	}
+
+}
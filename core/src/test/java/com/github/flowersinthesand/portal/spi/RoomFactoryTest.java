@@ -15,10 +15,17 @@
  */
 package com.github.flowersinthesand.portal.spi;
 
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
 import org.junit.Assert;
+import org.mockito.Mockito;
 import org.testng.annotations.Test;
 
 import com.github.flowersinthesand.portal.Room;
+import com.github.flowersinthesand.portal.Socket;
 import com.github.flowersinthesand.portal.support.DefaultRoomFactory;
 
 public class RoomFactoryTest {
@@ -63,4 +70,28 @@ public class RoomFactoryTest {
 		Assert.assertArrayEquals(factory.all().toArray(), new Object[] { r2 });
 	}
 
+	@Test
+	public void rooms() throws Exception {
+		DefaultRoomFactory factory = new DefaultRoomFactory();
+		Room r1 = factory.open("1");
+		Room r2 = factory.open("2");
+		Socket socket = Mockito.mock(Socket.class);
+		Mockito.when(socket.opened()).thenReturn(true);
+		Assert.assertTrue(factory.rooms(socket).isEmpty());
+
+		r1.add(socket);
+		r2.add(socket);
+		r1.in(socket).out(socket);
+		Assert.assertEquals(factory.rooms(socket), new HashSet<Room>(Arrays.asList(r1, r2)));
+
+		r1.remove(socket);
+		Assert.assertEquals(factory.rooms(socket), new HashSet<Room>(Arrays.asList(r2)));
+		factory.remove("2");
+		Assert.assertTrue(factory.rooms(socket).isEmpty());
+
+		Field field = DefaultRoomFactory.class.getDeclaredField("memberships");
+		field.setAccessible(true);
+		Assert.assertTrue(((Map<?, ?>) field.get(factory)).isEmpty());
+	}
+
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.spi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import com.github.flowersinthesand.portal.Socket;
+import com.github.flowersinthesand.portal.handler.StageHandler;
+import com.github.flowersinthesand.portal.handler.ThrowingHandler.TestException;
+import com.github.flowersinthesand.portal.support.DefaultDispatcher;
+
+/**
+ * Requires Java 8 so it is excluded from the build on older JDKs.
+ */
+public class StageTest {
+
+	@Test
+	public void completing() throws SecurityException, NoSuchMethodException {
+		StageHandler h = new StageHandler();
+		DefaultDispatcher dispatcher = new DefaultDispatcher();
+		final Map<String, Object> replyInfo = new LinkedHashMap<String, Object>();
+		Socket socket = Mockito.mock(Socket.class);
+		Mockito.when(socket.send(Mockito.anyString(), Mockito.anyMap())).thenAnswer(new Answer<Object>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				replyInfo.putAll((Map<String, Object>) invocation.getArguments()[1]);
+				return null;
+			}
+		});
+
+		dispatcher.on("stage", h, h.getClass().getMethod("stage"));
+		dispatcher.fire("stage", socket, null, 1);
+		Assert.assertTrue(replyInfo.isEmpty());
+		h.stage.complete("done");
+		Assert.assertEquals(replyInfo.get("data"), "done");
+		Assert.assertEquals(replyInfo.get("exception"), false);
+		replyInfo.clear();
+
+		dispatcher.on("failingStage", h, h.getClass().getMethod("failingStage"));
+		dispatcher.fire("failingStage", socket, null, 2);
+		h.failingStage.completeExceptionally(new TestException("Hello"));
+		Assert.assertEquals(replyInfo.get("exception"), true);
+		Assert.assertEquals(((Map<?, ?>) replyInfo.get("data")).get("message"), "Hello");
+		replyInfo.clear();
+
+		dispatcher.on("unmappedStage", h, h.getClass().getMethod("unmappedStage"));
+		dispatcher.fire("unmappedStage", socket, null, 3);
+		h.unmappedStage.completeExceptionally(new IllegalStateException("Hello"));
+		Assert.assertEquals(replyInfo.get("exception"), true);
+		Assert.assertEquals(((Map<?, ?>) replyInfo.get("data")).get("type"), IllegalStateException.class.getName());
+		dispatcher.destroy();
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import com.github.flowersinthesand.portal.support.StaticAsset;
+
+public class StaticAssetTest {
+
+	@Test
+	public void loading() throws IOException {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		StaticAsset asset = StaticAsset.get(classLoader, "/portal/portal.js");
+		Assert.assertSame(StaticAsset.get(classLoader, "/portal/portal.js"), asset);
+		Assert.assertNotSame(StaticAsset.get(new URLClassLoader(new URL[0], classLoader), "/portal/portal.js"), asset);
+		Assert.assertNull(StaticAsset.get(classLoader, "/portal/nothing.js"));
+
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		asset.write(plain, false);
+		Assert.assertEquals(plain.size(), asset.length(false));
+		Assert.assertEquals(asset.buffer(false).remaining(), asset.length(false));
+
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		asset.write(gzipped, true);
+		Assert.assertTrue(asset.length(true) < asset.length(false));
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()));
+		ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = in.read(buffer)) != -1;) {
+			inflated.write(buffer, 0, n);
+		}
+		Assert.assertArrayEquals(inflated.toByteArray(), plain.toByteArray());
+	}
+
+	@Test
+	public void caching() {
+		StaticAsset asset = StaticAsset.get(Thread.currentThread().getContextClassLoader(), "/portal/portal.min.js");
+		Assert.assertTrue(asset.matches(asset.etag(false), false));
+		Assert.assertTrue(asset.matches("\"other\", W/" + asset.etag(false), false));
+		Assert.assertTrue(asset.matches("*", false));
+		Assert.assertFalse(asset.matches("\"other\"", false));
+		Assert.assertFalse(asset.matches(null, false));
+		Assert.assertFalse(asset.etag(true).equals(asset.etag(false)));
+		Assert.assertTrue(asset.matches(asset.etag(true), true));
+		Assert.assertFalse(asset.matches(asset.etag(false), true));
+
+		Assert.assertTrue(StaticAsset.acceptsGzip("gzip, deflate"));
+		Assert.assertTrue(StaticAsset.acceptsGzip("deflate, gzip;q=0.5"));
+		Assert.assertFalse(StaticAsset.acceptsGzip("gzip;q=0"));
+		Assert.assertFalse(StaticAsset.acceptsGzip("identity"));
+		Assert.assertFalse(StaticAsset.acceptsGzip(null));
+	}
+
+}
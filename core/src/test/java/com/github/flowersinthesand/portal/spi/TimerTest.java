@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2013 Donghwan Kim
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.flowersinthesand.portal.spi;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import com.github.flowersinthesand.portal.Options;
+import com.github.flowersinthesand.portal.support.HashedWheelTimer;
+import com.github.flowersinthesand.portal.support.HashedWheelTimer.Timeout;
+
+public class TimerTest {
+
+	@Test
+	public void expiring() throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 150, TimeUnit.MILLISECONDS);
+
+		Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+		Assert.assertTrue(timeout.expired());
+		Assert.assertFalse(timeout.cancel());
+		timer.destroy();
+	}
+
+	@Test
+	public void cancelling() throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+		final CountDownLatch latch = new CountDownLatch(1);
+		Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+
+		Assert.assertTrue(timeout.cancel());
+		Assert.assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(timeout.cancelled());
+		Assert.assertFalse(timeout.renew());
+		Assert.assertEquals(timer.size(), 0);
+		timer.destroy();
+	}
+
+	@Test
+	public void renewing() throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+
+		for (int i = 0; i < 5; i++) {
+			Thread.sleep(50);
+			Assert.assertTrue(timeout.renew());
+		}
+		Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(350));
+		timer.destroy();
+	}
+
+	@Test
+	public void ticking() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer();
+		Assert.assertEquals(timer.tickDuration(TimeUnit.MILLISECONDS), 100);
+		Field field = HashedWheelTimer.class.getDeclaredField("options");
+		field.setAccessible(true);
+		field.set(timer, new Options().timerTick(20));
+		timer.init();
+		Assert.assertEquals(timer.tickDuration(TimeUnit.MILLISECONDS), 20);
+	}
+
+}
@@ -25,6 +25,7 @@ import play.mvc.WebSocket;
 
 import com.github.flowersinthesand.portal.Bean;
 import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.Transport;
 
 @Bean("socketFactory")
 public class PlaySocketFactory extends AbstractSocketFactory {
@@ -39,13 +40,13 @@ public class PlaySocketFactory extends AbstractSocketFactory {
 	Chunks<String> openHttp(Request req, Response res) {
 		String when = req.queryString().get("when")[0];
 		String id = req.queryString().get("id")[0];
-		String transport = req.queryString().get("transport")[0];
+		Transport transport = Transport.of(req.queryString().get("transport")[0]);
 
 		HttpSocket socket = null;
-		if (transport.equals("sse") || transport.startsWith("stream")) {
+		if (transport.streaming()) {
 			socket = new StreamSocket(req, res);
 			sockets.put(id, socket);
-		} else if (transport.startsWith("longpoll")) {
+		} else if (transport.longpolling()) {
 			if (when.equals("open")) {
 				socket = new LongPollSocket(req, res);
 				sockets.put(id, socket);
@@ -16,7 +16,14 @@
 package com.github.flowersinthesand.portal.spel;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 
@@ -27,12 +34,53 @@ import com.github.flowersinthesand.portal.spi.Dispatcher;
 @Bean("dispatcher.Evaluator")
 public class SpelEvaluator implements Dispatcher.Evaluator {
 
+	private final Logger logger = LoggerFactory.getLogger(SpelEvaluator.class);
+	private ExpressionParser parser = new SpelExpressionParser();
+	private ConcurrentMap<String, Expression> expressions = new ConcurrentHashMap<String, Expression>();
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
 	@Wire
 	private StandardEvaluationContext context;
 
 	@Override
 	public Object evaluate(Map<String, Object> root, String expression) {
-		return new SpelExpressionParser().parseExpression(expression).getValue(this.context, root);
+		return expression(expression).getValue(this.context, root);
+	}
+
+	private Expression expression(String expression) {
+		Expression parsed = expressions.get(expression);
+		if (parsed != null) {
+			hits.incrementAndGet();
+			return parsed;
+		}
+
+		misses.incrementAndGet();
+		parsed = parser.parseExpression(expression);
+		Expression existing = expressions.putIfAbsent(expression, parsed);
+		if (existing != null) {
+			return existing;
+		}
+
+		logger.debug("Expression '{}' is parsed and cached", expression);
+		return parsed;
+	}
+
+	public int size() {
+		return expressions.size();
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public double hitRate() {
+		long hits = hits();
+		long total = hits + misses();
+		return total == 0 ? 0 : (double) hits / total;
 	}
 
 }
@@ -15,12 +15,7 @@
  */
 package com.github.flowersinthesand.portal.vertx;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
-
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpServer;
@@ -33,6 +28,7 @@ import com.github.flowersinthesand.portal.Init;
 import com.github.flowersinthesand.portal.Wire;
 import com.github.flowersinthesand.portal.spi.SocketController;
 import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.StaticAsset;
 
 @Bean("socketController")
 public class VertxSocketController implements SocketController {
@@ -57,26 +53,39 @@ public class VertxSocketController implements SocketController {
 	}
 
 	private Handler<HttpServerRequest> resource() {
+		ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		StaticAsset.get(classLoader, "/portal/portal.js");
+		StaticAsset.get(classLoader, "/portal/portal.min.js");
+
 		return new Handler<HttpServerRequest>() {
 			@Override
 			public void handle(HttpServerRequest req) {
-				URL url = Thread.currentThread().getContextClassLoader().getResource("META-INF/resources" + req.path);
-				if (url == null) {
+				StaticAsset asset = StaticAsset.get(Thread.currentThread().getContextClassLoader(), req.path);
+				if (asset == null) {
 					req.response.statusCode = 404;
 					req.response.end();
-				} else {
-					ByteArrayOutputStream baos = new ByteArrayOutputStream();
-					try {
-						write(url.openStream(), baos);
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+					return;
+				}
 
-					req.response
-					.putHeader("Content-Type", "application/javascript")
-					.putHeader("Content-Length", String.valueOf(baos.size()))
-					.end(new Buffer(baos.toByteArray()));
+				boolean gzip = StaticAsset.acceptsGzip(req.headers().get("Accept-Encoding"));
+				req.response
+				.putHeader("ETag", asset.etag(gzip))
+				.putHeader("Cache-Control", StaticAsset.CACHE_CONTROL)
+				.putHeader("Vary", "Accept-Encoding");
+				if (asset.matches(req.headers().get("If-None-Match"), gzip)) {
+					req.response.statusCode = 304;
+					req.response.end();
+					return;
 				}
+
+				if (gzip) {
+					req.response.putHeader("Content-Encoding", "gzip");
+				}
+				// Wraps the direct buffer held by the asset so that nothing is copied
+				req.response
+				.putHeader("Content-Type", "application/javascript; charset=utf-8")
+				.putHeader("Content-Length", String.valueOf(asset.length(gzip)))
+				.end(new Buffer(ChannelBuffers.wrappedBuffer(asset.buffer(gzip))));
 			}
 		};
 	}
@@ -129,22 +138,4 @@ public class VertxSocketController implements SocketController {
 		};
 	}
 
-	private void write(InputStream in, OutputStream out) throws IOException {
-		try {
-			byte[] buffer = new byte[4096];
-			int bytesRead = -1;
-			while ((bytesRead = in.read(buffer)) != -1) {
-				out.write(buffer, 0, bytesRead);
-			}
-			out.flush();
-		} finally {
-			try {
-				in.close();
-			} catch (IOException ex) {}
-			try {
-				out.close();
-			} catch (IOException ex) {}
-		}
-	}
-
 }
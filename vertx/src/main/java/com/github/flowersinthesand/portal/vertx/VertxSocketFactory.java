@@ -18,6 +18,7 @@ package com.github.flowersinthesand.portal.vertx;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.vertx.java.core.Handler;
@@ -29,6 +30,7 @@ import org.vertx.java.core.http.ServerWebSocket;
 
 import com.github.flowersinthesand.portal.Bean;
 import com.github.flowersinthesand.portal.support.AbstractSocketFactory;
+import com.github.flowersinthesand.portal.support.Transport;
 
 @Bean("socketFactory")
 public class VertxSocketFactory extends AbstractSocketFactory {
@@ -42,13 +44,13 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 	void openHttp(HttpServerRequest req) {
 		String when = req.params().get("when");
 		String id = req.params().get("id");
-		String transport = req.params().get("transport");
+		Transport transport = Transport.of(req.params().get("transport"));
 
-		if (transport.equals("sse") || transport.startsWith("stream")) {
+		if (transport.streaming()) {
 			StreamSocket socket = new StreamSocket(req);
 			sockets.put(id, socket);
 			socket.onOpen();
-		} else if (transport.startsWith("longpoll")) {
+		} else if (transport.longpolling()) {
 			if (when.equals("open")) {
 				LongPollSocket socket = new LongPollSocket(req);
 				sockets.put(id, socket);
@@ -89,6 +91,17 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 					onClose();
 				}
 			});
+			webSocket.drainHandler(new SimpleHandler() {
+				@Override
+				protected void handle() {
+					drain();
+				}
+			});
+		}
+
+		@Override
+		protected boolean writable() {
+			return !webSocket.writeQueueFull();
 		}
 
 		@Override
@@ -123,14 +136,32 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 					onClose();
 				}
 			});
+			res.drainHandler(new SimpleHandler() {
+				@Override
+				protected void handle() {
+					drain();
+				}
+			});
 			res.setChunked(true).putHeader("content-type", streamContentType() + "; charset=utf-8");
-			res.write(padding2K);
-			if (isAndroid) {
-				res.write(padding2K);
-			}
+			res.write(new Buffer(isAndroid ? padding4KBytes : padding2KBytes));
 			res.write("\n");
 		}
 
+		@Override
+		protected boolean writable() {
+			return !res.writeQueueFull();
+		}
+
+		@Override
+		protected boolean transmitsBytes() {
+			return true;
+		}
+
+		@Override
+		protected void transmit(byte[] it) {
+			res.write(new Buffer(it));
+		}
+
 		@Override
 		protected void transmit(String it) {
 			res.write(it);
@@ -145,7 +176,7 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 
 	class LongPollSocket extends AbstractSocket {
 
-		private HttpServerResponse res;
+		private AtomicReference<HttpServerResponse> res = new AtomicReference<HttpServerResponse>();
 
 		public LongPollSocket(HttpServerRequest req) {
 			this.params = req.params();
@@ -153,7 +184,8 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 		}
 
 		private void refresh(HttpServerRequest req, final boolean open) {
-			res = req.response;
+			HttpServerResponse res = req.response;
+			this.res.set(res);
 			res.exceptionHandler(new Handler<Exception>() {
 				@Override
 				public void handle(Exception event) {
@@ -163,7 +195,7 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 			res.closeHandler(new SimpleHandler() {
 				@Override
 				protected void handle() {
-					if (!open && res != null) {
+					if (!open && LongPollSocket.this.res.get() != null) {
 						onClose();
 					}
 				}
@@ -179,9 +211,9 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 
 		@Override
 		protected void transmit(String it) {
-			if (res != null) {
-				HttpServerResponse response = res;
-				res = null;
+			// A response can carry only one transmission
+			HttpServerResponse response = res.getAndSet(null);
+			if (response != null) {
 				response.end(it);
 				response.close();
 			}
@@ -189,8 +221,9 @@ public class VertxSocketFactory extends AbstractSocketFactory {
 
 		@Override
 		protected void disconnect() {
-			if (res != null) {
-				res.close();
+			HttpServerResponse response = res.get();
+			if (response != null) {
+				response.close();
 			}
 		}
 